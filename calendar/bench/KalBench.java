@@ -0,0 +1,608 @@
+package calendar.bench;
+
+import calendar.model.Appointment;
+import calendar.model.Calendar;
+import calendar.model.Time;
+import calendar.model.TimeFormat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * KalBench measures the calendar model, its parsers and its persistence, so that a change to any of them can be
+ * checked for a slowdown before it is merged. It runs without any library: each benchmark is warmed up, then
+ * timed over several runs of a fixed length, the way JMH does it, and the median, fastest and slowest time
+ * per operation are reported together with the bytes allocated per operation and the heap bytes each stored
+ * appointment takes.
+ *
+ * Options are name=value arguments; days, perDay and reads take comma-separated lists, and every combination
+ * of them is measured:
+ * <pre>
+ *   days=31          days the appointments are spread over
+ *   perDay=8         appointments on each day
+ *   reads=90         percent of the mixed work that reads a day, the rest adds and removes
+ *   warmup=3         untimed runs before measuring
+ *   runs=5           timed runs
+ *   time=500         milliseconds each run lasts
+ *   seed=42          seed of the generated appointments
+ *   only=add,remove  only these benchmarks
+ *   report=file      also write the report to this file
+ * </pre>
+ * The appointments come from the seed alone, and the report lists the options, the JVM and the results in a
+ * fixed order, so the reports of two versions run with the same options can be compared with diff.
+ */
+public final class KalBench {
+
+    /**
+     * The month the generated calendars are views of
+     */
+    private static final YearMonth MONTH = YearMonth.of(2024, 1);
+
+    /**
+     * Words the descriptions are made of
+     */
+    private static final String[] WORDS = {"dentist", "lunch", "standup", "review", "gym", "call", "dinner", "class"};
+
+    /**
+     * The columns of a line of the report
+     */
+    private static final String ROW = "%-24s %-30s %12s %12s %12s %12s";
+
+    /**
+     * The fewest appointments the heap is measured with
+     */
+    private static final int FOOTPRINT = 200_000;
+
+    /**
+     * Every benchmark, in the order they are run and reported
+     */
+    private static final String[] NAMES = {"add", "appointmentsOn", "remove", "mixed", "Time.toString",
+            "Appointment.fromString", "toFile", "fromFile"};
+
+    /**
+     * The options, by name, with their defaults
+     */
+    private final Map<String, String> options = new LinkedHashMap<>();
+
+    /**
+     * The JVM's thread bean
+     */
+    private final ThreadMXBean threads;
+
+    /**
+     * Counts the bytes a thread of {@link #threads} allocates, or null if this JVM cannot. It is found at run
+     * time, so the application does not have to require the jdk.management module just for the benchmarks.
+     */
+    private final MethodHandle allocations;
+
+    /**
+     * The report so far, also printed as it is made
+     */
+    private final StringBuilder report = new StringBuilder();
+
+    /**
+     * Where the calendar files are written
+     */
+    private final Path scratch;
+
+    /**
+     * Something every benchmark adds its results to, so the work it does cannot be optimized away
+     */
+    private long sink;
+
+
+    /**
+     * One set of generated appointments: a day, a time, a description and a duration for each
+     */
+    private static final class Workload {
+        final int days;
+        final int perDay;
+        final int reads;
+        final LocalDate[] dates;
+        final Time[] times;
+        final String[] texts;
+        final int[] durations;
+        final String[] lines;
+
+        Workload(int days, int perDay, int reads, long seed){
+            this.days = days;
+            this.perDay = perDay;
+            this.reads = reads;
+            int count = days * perDay;
+            this.dates = new LocalDate[count];
+            this.times = new Time[count];
+            this.texts = new String[count];
+            this.durations = new int[count];
+            this.lines = new String[count];
+            Random random = new Random(seed);
+            LocalDate first = MONTH.atDay(1);
+            for (int i = 0; i < count; i++) {
+                int minute = random.nextInt(Time.MINS_PER_DAY);
+                this.dates[i] = first.plusDays(i / perDay);
+                this.times[i] = Time.of(minute);
+                this.texts[i] = WORDS[random.nextInt(WORDS.length)] + " " + i;
+                this.durations[i] = Math.min(random.nextInt(5) * 15, Time.MINS_PER_DAY - minute);
+                this.lines[i] = new Appointment(this.dates[i].getDayOfMonth(), this.times[i], this.texts[i],
+                        this.durations[i]).csvFormat();
+            }
+        }
+
+        int size(){
+            return this.dates.length;
+        }
+
+        String describe(){
+            return "days=" + this.days + " perDay=" + this.perDay + " reads=" + this.reads;
+        }
+    }
+
+    /**
+     * One benchmark: the untimed setup before each invocation and the timed invocation
+     */
+    private interface Benchmark {
+        /**
+         * Get ready for the next invocation
+         * @throws IOException if a file cannot be written
+         */
+        default void setup() throws IOException {
+        }
+
+        /**
+         * Do the work being measured
+         * @return how many operations were done
+         * @throws IOException if a file cannot be read or written
+         */
+        int run() throws IOException;
+    }
+
+    /**
+     * Create a harness
+     * @param args the options
+     * @throws IOException if there is no room for the scratch files
+     */
+    private KalBench(String[] args) throws IOException {
+        this.options.put("days", "31");
+        this.options.put("perDay", "8");
+        this.options.put("reads", "90");
+        this.options.put("warmup", "3");
+        this.options.put("runs", "5");
+        this.options.put("time", "500");
+        this.options.put("seed", "42");
+        this.options.put("only", String.join(",", NAMES));
+        this.options.put("report", "");
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0 || !this.options.containsKey(arg.substring(0, equals))) {
+                throw new IllegalArgumentException("Unknown option: " + arg + ", expected one of "
+                        + this.options.keySet());
+            }
+            this.options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        this.threads = ManagementFactory.getThreadMXBean();
+        this.allocations = allocationCounter(this.threads);
+        this.scratch = Files.createTempDirectory("kalbench");
+    }
+
+    /**
+     * Read a list of numbers from an option
+     * @param name the option
+     * @return the numbers
+     */
+    private int[] numbers(String name){
+        return Arrays.stream(this.options.get(name).split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+
+    /**
+     * Read a number from an option
+     * @param name the option
+     * @return the number
+     */
+    private int number(String name){
+        return Integer.parseInt(this.options.get(name).trim());
+    }
+
+    /**
+     * Run every selected benchmark for every combination of the workload options and print the report
+     * @throws IOException if a calendar file cannot be written or read
+     */
+    private void runAll() throws IOException {
+        List<String> only = Arrays.asList(this.options.get("only").split(","));
+        for (String name : only) {
+            if (!Arrays.asList(NAMES).contains(name)) {
+                throw new IllegalArgumentException("Unknown benchmark: " + name + ", expected one of "
+                        + Arrays.toString(NAMES));
+            }
+        }
+        line("# KalBench " + String.join(" ", optionList()));
+        line("# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + ", "
+                + Runtime.getRuntime().availableProcessors() + " processors, max heap "
+                + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB");
+        line(String.format(Locale.ROOT, ROW, "benchmark", "workload", "ns/op", "min", "max", "B/op"));
+        for (int days : numbers("days")) {
+            for (int perDay : numbers("perDay")) {
+                for (int reads : numbers("reads")) {
+                    Workload workload = new Workload(days, perDay, reads, Long.parseLong(this.options.get("seed")));
+                    for (String name : NAMES) {
+                        if (only.contains(name)) {
+                            measure(name, workload, benchmark(name, workload));
+                        }
+                    }
+                    footprint(workload);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a line to the report and print it
+     * @param line the line
+     */
+    private void line(String line){
+        this.report.append(line).append('\n');
+        System.out.println(line);
+    }
+
+    /**
+     * List the options as they were given or defaulted, so a report says how to make it again
+     * @return name=value for each option but the report file
+     */
+    private List<String> optionList(){
+        List<String> list = new ArrayList<>();
+        for (Map.Entry<String, String> option : this.options.entrySet()) {
+            if (!option.getKey().equals("report")) {
+                list.add(option.getKey() + "=" + option.getValue());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Make a benchmark
+     * @param name which one
+     * @param workload the appointments it works with
+     * @return the benchmark
+     */
+    private Benchmark benchmark(String name, Workload workload){
+        switch (name) {
+            case "add": return new Benchmark() {
+                Calendar calendar;
+
+                @Override
+                public void setup(){
+                    this.calendar = new Calendar(MONTH);
+                }
+
+                @Override
+                public int run(){
+                    for (int i = 0; i < workload.size(); i++) {
+                        sink += this.calendar.add(workload.dates[i], workload.times[i], workload.texts[i],
+                                workload.durations[i]);
+                    }
+                    return workload.size();
+                }
+            };
+            case "appointmentsOn": return new Benchmark() {
+                final Calendar calendar = filled(workload, null);
+
+                @Override
+                public int run(){
+                    LocalDate day = MONTH.atDay(1);
+                    for (int d = 0; d < workload.days; d++) {
+                        for (Appointment appointment : this.calendar.appointmentsOn(day)) {
+                            sink += appointment.getTime().getMinutes();
+                        }
+                        day = day.plusDays(1);
+                    }
+                    return workload.days;
+                }
+            };
+            case "remove": return new Benchmark() {
+                Calendar calendar;
+                final long[] ids = new long[workload.size()];
+
+                @Override
+                public void setup(){
+                    this.calendar = filled(workload, this.ids);
+                }
+
+                @Override
+                public int run(){
+                    for (long id : this.ids) {
+                        sink += this.calendar.remove(id) ? 1 : 0;
+                    }
+                    return this.ids.length;
+                }
+            };
+            case "mixed": return mixed(workload);
+            case "Time.toString": return () -> {
+                for (int minute = 0; minute < Time.MINS_PER_DAY; minute++) {
+                    sink += Time.of(minute).toString().length()
+                            + Time.of(minute).toString(TimeFormat.TWELVE_HOUR).length();
+                }
+                return 2 * Time.MINS_PER_DAY;
+            };
+            case "Appointment.fromString": return () -> {
+                for (String line : workload.lines) {
+                    sink += Appointment.fromString(line).getDuration();
+                }
+                return workload.lines.length;
+            };
+            case "toFile": return new Benchmark() {
+                Calendar calendar;
+
+                @Override
+                public void setup() throws IOException {
+                    this.calendar = Calendar.fromFile(write(workload).toString());
+                    this.calendar.add(MONTH.atDay(1), Time.of(0), "dirty");
+                }
+
+                @Override
+                public int run() throws IOException {
+                    this.calendar.toFile();
+                    return 1;
+                }
+            };
+            default: return new Benchmark() {
+                Path file;
+
+                @Override
+                public void setup() throws IOException {
+                    if (this.file == null) {
+                        this.file = write(workload);
+                    }
+                }
+
+                @Override
+                public int run() throws IOException {
+                    sink += Calendar.fromFile(this.file.toString()).size();
+                    return 1;
+                }
+            };
+        }
+    }
+
+    /**
+     * Make the benchmark of a mix of reads and writes: each operation reads a random day, or with the rest of
+     * the odds adds an appointment or removes a random one, so the calendar stays about the same size.
+     * @param workload the appointments to start with
+     * @return the benchmark
+     */
+    private Benchmark mixed(Workload workload){
+        return new Benchmark() {
+            final long[] ids = new long[workload.size()];
+            final Calendar calendar = filled(workload, this.ids);
+            final Random random = new Random(Long.parseLong(options.get("seed")));
+
+            @Override
+            public int run(){
+                int ops = Math.max(workload.size(), 1000);
+                for (int op = 0; op < ops; op++) {
+                    int i = this.random.nextInt(this.ids.length);
+                    if (this.random.nextInt(100) < workload.reads) {
+                        sink += this.calendar.appointmentsOn(workload.dates[i]).size();
+                    } else if (this.calendar.remove(this.ids[i])) {
+                        sink++;
+                    } else {
+                        this.ids[i] = this.calendar.add(workload.dates[i], workload.times[i], workload.texts[i],
+                                workload.durations[i]);
+                    }
+                }
+                return ops;
+            }
+        };
+    }
+
+    /**
+     * Make a calendar holding the appointments of a workload
+     * @param workload the appointments
+     * @param ids where the ids they are given go, or null
+     * @return the calendar
+     */
+    private static Calendar filled(Workload workload, long[] ids){
+        Calendar calendar = new Calendar(MONTH);
+        for (int i = 0; i < workload.size(); i++) {
+            long id = calendar.add(workload.dates[i], workload.times[i], workload.texts[i], workload.durations[i]);
+            if (ids != null) {
+                ids[i] = id;
+            }
+        }
+        return calendar;
+    }
+
+    /**
+     * Write the appointments of a workload to a calendar file
+     * @param workload the appointments
+     * @return the file
+     * @throws IOException if it cannot be written
+     */
+    private Path write(Workload workload) throws IOException {
+        Path file = this.scratch.resolve(workload.days + "x" + workload.perDay + ".txt");
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(MONTH.toString());
+            writer.write('\n');
+            for (int i = 0; i < workload.size(); i++) {
+                LocalDate date = workload.dates[i];
+                writer.write(date.getMonth() == MONTH.getMonth() && date.getYear() == MONTH.getYear()
+                        ? workload.lines[i] : date + workload.lines[i].substring(workload.lines[i].indexOf(',')));
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Warm a benchmark up, time it, and print a line of the report. A run repeats the invocation, each after
+     * its own untimed setup, until the run has lasted the time asked for; only the invocations are timed and
+     * only their allocations counted.
+     * @param name the benchmark's name
+     * @param workload the appointments it works with
+     * @param benchmark the benchmark
+     * @throws IOException if it fails to read or write a file
+     */
+    private void measure(String name, Workload workload, Benchmark benchmark) throws IOException {
+        long runNanos = number("time") * 1_000_000L;
+        int warmup = number("warmup");
+        int runs = number("runs");
+        double[] perOp = new double[runs];
+        long bytes = 0;
+        long ops = 0;
+        for (int r = -warmup; r < runs; r++) {
+            long elapsed = 0;
+            long runOps = 0;
+            long runBytes = 0;
+            while (elapsed < runNanos) {
+                benchmark.setup();
+                long allocated = allocated();
+                long start = System.nanoTime();
+                runOps += benchmark.run();
+                elapsed += System.nanoTime() - start;
+                runBytes += allocated() - allocated;
+            }
+            if (r >= 0) {
+                perOp[r] = (double) elapsed / runOps;
+                bytes += runBytes;
+                ops += runOps;
+            }
+        }
+        Arrays.sort(perOp);
+        line(String.format(Locale.ROOT, ROW, name, workload.describe(), decimal(perOp[runs / 2]),
+                decimal(perOp[0]), decimal(perOp[runs - 1]),
+                this.allocations == null ? "-" : decimal((double) bytes / ops)));
+    }
+
+    /**
+     * Print how many heap bytes each appointment of a workload takes once it is in a calendar, measured as the
+     * growth of the live heap after a collection. Enough calendars are filled to hold at least
+     * {@value #FOOTPRINT} appointments, so a small workload is not lost in the noise of the heap.
+     * @param workload the appointments
+     */
+    private void footprint(Workload workload){
+        int copies = (FOOTPRINT + workload.size() - 1) / Math.max(workload.size(), 1);
+        Calendar[] calendars = new Calendar[copies];
+        long before = liveHeap();
+        for (int i = 0; i < copies; i++) {
+            calendars[i] = filled(workload, null);
+        }
+        long after = liveHeap();
+        Reference.reachabilityFence(calendars);
+        line(String.format(Locale.ROOT, ROW, "heap/appointment", workload.describe(), "-", "-", "-",
+                decimal((double) (after - before) / ((long) copies * workload.size()))));
+    }
+
+    /**
+     * Write a number for the report
+     * @param value the number
+     * @return it with one decimal
+     */
+    private static String decimal(double value){
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    /**
+     * Measure the live heap, collecting garbage until it stops shrinking
+     * @return the bytes in use
+     */
+    private static long liveHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    /**
+     * Find the allocation counter of com.sun.management.ThreadMXBean, if the JVM has that module and the bean
+     * counts allocations
+     * @param threads the thread bean
+     * @return a handle that takes the bean and a thread id and returns the bytes allocated, or null
+     */
+    private static MethodHandle allocationCounter(ThreadMXBean threads){
+        try {
+            Class<?> counting = Class.forName("com.sun.management.ThreadMXBean");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            if (!counting.isInstance(threads) || !(boolean) lookup.findVirtual(counting,
+                    "isThreadAllocatedMemorySupported", MethodType.methodType(boolean.class)).invoke(threads)) {
+                return null;
+            }
+            return lookup.findVirtual(counting, "getThreadAllocatedBytes",
+                    MethodType.methodType(long.class, long.class))
+                    .asType(MethodType.methodType(long.class, ThreadMXBean.class, long.class));
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return how many bytes this thread has allocated so far
+     * @return the count, or 0 if the JVM cannot count them
+     */
+    private long allocated(){
+        if (this.allocations == null) {
+            return 0;
+        }
+        try {
+            return (long) this.allocations.invokeExact(this.threads, Thread.currentThread().getId());
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot count allocations", e);
+        }
+    }
+
+    /**
+     * Delete the scratch files
+     */
+    private void cleanUp(){
+        try (var files = Files.list(this.scratch)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(this.scratch);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Run the benchmarks
+     * @param args name=value options, see the class description
+     * @throws IOException if a calendar file cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        KalBench bench = new KalBench(args);
+        try {
+            bench.runAll();
+        } finally {
+            bench.cleanUp();
+        }
+        String report = bench.options.get("report");
+        if (!report.isEmpty()) {
+            Files.writeString(Path.of(report), bench.report, StandardCharsets.UTF_8);
+        }
+    }
+
+}
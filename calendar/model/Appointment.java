@@ -11,7 +11,18 @@ public class Appointment implements Comparable{
     private int date;
     private Time time;
     private String what;
-    private boolean removed;
+    /**
+     * How many minutes the appointment lasts, or 0 if it only has a start
+     */
+    private int duration;
+    /**
+     * The id the calendar gave this appointment, or 0 if it did not come from a calendar
+     */
+    private long id;
+    /**
+     * Whether this is one occurrence of a {@link Recurrence}, whose id it has
+     */
+    private boolean recurring;
 
 
     /**
@@ -21,11 +32,54 @@ public class Appointment implements Comparable{
      * @param what a string describing the appointment
      */
     public Appointment(int date,Time time, String what){
+        this(date, time, what, 0, 0);
+
+    }
+
+    /**
+     * Create an Appointment that lasts a while, so a calendar can tell what it overlaps
+     * @param date integer value from 1-31
+     * @param time a Time objected created using Time class
+     * @param what a string describing the appointment
+     * @param duration how many minutes it lasts, or 0 if it only has a start
+     * @throws IllegalArgumentException if the duration is negative or runs past midnight
+     */
+    public Appointment(int date, Time time, String what, int duration){
+        this(date, time, what, duration, 0);
+        if (duration < 0 || time.getMinutes() + duration > Time.MINS_PER_DAY) {
+            throw new IllegalArgumentException("An appointment at " + time + " cannot last " + duration +
+                    " minutes");
+        }
+    }
+
+    /**
+     * Create an Appointment for one that a calendar holds
+     * @param date integer value from 1-31
+     * @param time a Time objected created using Time class
+     * @param what a string describing the appointment
+     * @param duration how many minutes it lasts, or 0
+     * @param id the id the calendar gave it
+     */
+    Appointment(int date, Time time, String what, int duration, long id){
+        this(date, time, what, duration, id, false);
+    }
+
+    /**
+     * Create an Appointment for one that a calendar holds, or for one occurrence of a repeating rule
+     * @param date integer value from 1-31
+     * @param time a Time objected created using Time class
+     * @param what a string describing the appointment
+     * @param duration how many minutes it lasts, or 0
+     * @param id the id the calendar gave it, or the id of its rule
+     * @param recurring true for an occurrence of a rule
+     */
+    Appointment(int date, Time time, String what, int duration, long id, boolean recurring){
         this.date=date;
         this.time=time;
         this.what=what;
-        this.removed = false;
-
+        this.duration=duration;
+        this.id=id;
+        this.recurring=recurring;
     }
 
     /**
@@ -53,7 +107,7 @@ public class Appointment implements Comparable{
     }
 
     /**
-     * Compares to Appointment objects on the basis of their 'What' , date and time.
+     * Compares to Appointment objects on the basis of their 'What' , date, time and duration.
      * @param other instance of appointment
      * @return true if the attributes are all same, false otherwise.
      */
@@ -62,7 +116,8 @@ public class Appointment implements Comparable{
         if(other instanceof Appointment) {
             Appointment oth = (Appointment) other;
 
-            return (this.time.equals(oth.time) && this.getDate() == oth.getDate() && this.what.equals(oth.what));
+            return (this.time.equals(oth.time) && this.getDate() == oth.getDate() && this.what.equals(oth.what)
+                    && this.duration == oth.duration);
         }
         return false;
     }
@@ -80,47 +135,47 @@ public class Appointment implements Comparable{
 
     /**
      * This method is used to take dates of various format and convert them into military time for comparison.
+     * The line is date,time,description with the time in any format of {@link Time#fromString(String)}. A
+     * description in quotes, with any quote in it written twice, may have commas in it and be followed by a
+     * fourth column with the duration in minutes; one that is not quoted stops at the next comma. It is read
+     * in place with indexOf instead of being split, so only the description is copied out of it.
      * @param inputLine line of string representing the time
      * @return an appointment object
+     * @throws NumberFormatException if the date, time or duration cannot be read
+     * @throws IllegalArgumentException if the appointment would run past midnight
      */
     public static Appointment fromString(String inputLine){
-
-        System.out.println(inputLine);
-        String meridian="NONE";
-        String[] separated = inputLine.split(",");
-        String[] time_separated = separated[1].split(":");
-        String[] minute_separated = time_separated[1].split(" ");
-        Appointment appointment;
-
-
-
-        try {
-            if (minute_separated[1].equals("AM") ||
-                    minute_separated[1].equals("PM")) {
-                meridian = minute_separated[1];
-
-            }
-        }catch (IndexOutOfBoundsException e){
-
+        int dateEnd = inputLine.indexOf(',');
+        int timeEnd = dateEnd < 0 ? -1 : inputLine.indexOf(',', dateEnd + 1);
+        if (timeEnd < 0) {
+            throw new NumberFormatException("Expected date,time,description: " + inputLine);
         }
-
-        if(meridian.equals("NONE")) {
-            Time time = new Time(Integer.parseInt(time_separated[0]),Integer.parseInt(time_separated[1]));
-             appointment = new Appointment(Integer.parseInt(separated[0])
-                    , time, separated[2]);
-
-
-        }else{
-            Time time = new Time(Integer.parseInt(time_separated[0]), Integer.parseInt(minute_separated[0]),
-                    Time.Meridiem.valueOf(meridian));
-
-            appointment = new Appointment(Integer.parseInt(separated[0])
-                    , time, separated[2]);
-
-
+        int date = Chars.parseNumber(inputLine, 0, dateEnd);
+        int minutes = Time.parseMinutes(inputLine, dateEnd + 1, timeEnd);
+        if (date < 0 || minutes < 0) {
+            throw new NumberFormatException("Bad date or time: " + inputLine);
         }
-
-        return appointment;
+        //like the file format: a description with a duration after it is quoted, anything else stops at the
+        //next comma
+        int quoteEnd = Chars.quotedEnd(inputLine, timeEnd + 1, inputLine.length());
+        if (quoteEnd < 0) {
+            int textEnd = inputLine.indexOf(',', timeEnd + 1);
+            return new Appointment(date, Time.of(minutes),
+                    inputLine.substring(timeEnd + 1, textEnd < 0 ? inputLine.length() : textEnd));
+        }
+        String what = Chars.unquote(inputLine.substring(timeEnd + 2, quoteEnd - 1));
+        int durationEnd = quoteEnd < inputLine.length() ? inputLine.indexOf(',', quoteEnd + 1) : -1;
+        if (durationEnd < 0) {
+            durationEnd = inputLine.length();
+        }
+        if (Chars.skipSpaces(inputLine, quoteEnd + 1, durationEnd) >= durationEnd) {
+            return new Appointment(date, Time.of(minutes), what);
+        }
+        int duration = Chars.parseNumber(inputLine, quoteEnd + 1, durationEnd);
+        if (duration < 0) {
+            throw new NumberFormatException("Bad duration: " + inputLine);
+        }
+        return new Appointment(date, Time.of(minutes), what, duration);
 
     }
 
@@ -140,6 +195,35 @@ public class Appointment implements Comparable{
         return this.time;
     }
 
+    /**
+     * Return how long the appointment lasts
+     * @return the duration in minutes, 0 if it only has a start
+     */
+    public int getDuration(){
+        return this.duration;
+    }
+
+    /**
+     * Return when the appointment ends
+     * @return its start plus its duration, which is midnight for one that lasts until the end of the day
+     */
+    public Time getEnd(){
+        return Time.of((this.time.getMinutes() + this.duration) % Time.MINS_PER_DAY);
+    }
+
+    /**
+     * Tell whether this appointment overlaps another one on the same day. One that only has a start is taken
+     * to fill its first minute.
+     * @param other the other appointment
+     * @return true if they share a date and at least one minute
+     */
+    public boolean overlaps(Appointment other){
+        int start = this.time.getMinutes();
+        int otherStart = other.time.getMinutes();
+        return this.date == other.date && start < otherStart + Math.max(other.duration, 1)
+                && otherStart < start + Math.max(this.duration, 1);
+    }
+
 
     /**
      * compute the hashcode and return an int
@@ -147,7 +231,7 @@ public class Appointment implements Comparable{
      */
     @Override
     public int hashCode(){
-        return this.date*683+this.time.hashCode()+what.hashCode();
+        return this.date*683+this.time.hashCode()+what.hashCode()+this.duration*31;
     }
 
 
@@ -156,12 +240,28 @@ public class Appointment implements Comparable{
      * @return String referring to the appointment details
      */
     public String toString(){
-        return "on "+ this.date+" "+this.time+"----"+this.what;
+        return toString(TimeFormat.CANONICAL);
 
     }
 
     /**
-     * Returns a comma-separated value of the appointment, used for storing in file
+     * Build and return a user friendly representation of the appointment, with its time in the given format
+     * @param format how to show the time
+     * @return String referring to the appointment details
+     */
+    public String toString(TimeFormat format){
+        if (this.duration > 0) {
+            return "on "+ this.date+" "+this.time.toString(format)+"-"+getEnd().toString(format)+"----"+this.what;
+        }
+        return "on "+ this.date+" "+this.time.toString(format)+"----"+this.what;
+
+    }
+
+    /**
+     * Returns a comma-separated value of the appointment, used for storing in file. The time is always in the
+     * canonical format, whatever format the appointment is shown in. The duration is a fourth column, left out
+     * when there is none so the line reads the same as before durations existed. The description is quoted
+     * when it is followed by a duration or would not read back whole otherwise, see {@link #fromString}.
      * @return a CSV representation of the appointment
      */
     public String csvFormat(){
@@ -171,7 +271,15 @@ public class Appointment implements Comparable{
         sb.append(",");
         sb.append(this.getTime());
         sb.append(",");
-        sb.append(this.getText());
+        if (this.duration > 0 || Chars.needsQuotes(this.what)) {
+            Chars.quote(this.what, sb);
+        } else {
+            sb.append(this.what);
+        }
+        if (this.duration > 0) {
+            sb.append(",");
+            sb.append(this.duration);
+        }
 
         return sb.toString();
 
@@ -179,21 +287,23 @@ public class Appointment implements Comparable{
 
 
     /**
-     *A helper function used in KalGUI to figure out which appointment is to be removed.
-     * @return
+     * Return the id of the appointment. A calendar gives every appointment it holds an id that stays the same
+     * until the appointment is removed, even when its text, date or time change, so the id can be used to
+     * find, change or remove exactly this appointment later. Ids are only kept while the calendar is in
+     * memory, and are not saved with it.
+     * @return the id, or 0 if the appointment was not read from a calendar
      */
-    public boolean remove(){
-        return this.removed;
+    public long getId(){
+        return this.id;
     }
 
     /**
-     * sets the removed boolean value of the instance object to x.
-     * @param x
+     * Tell whether this is one occurrence of a repeating appointment. Its id is then the id of the
+     * {@link Recurrence}, shared by every occurrence.
+     * @return true for an occurrence of a rule
      */
-    public void setRemoved(boolean x){
-        this.removed=x;
+    public boolean isRecurring(){
+        return this.recurring;
     }
 
-
-
 }
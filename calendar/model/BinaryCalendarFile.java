@@ -0,0 +1,331 @@
+package calendar.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * BinaryCalendarFile reads and writes the binary calendar format. A binary file is opened by mapping it
+ * read-only into memory, and a day's appointments are only decoded the first time the day is touched, so even
+ * a huge calendar opens at once, and processes that open the same file share its pages.
+ *
+ * Layout, all numbers big-endian:
+ * <pre>
+ *     header       int magic "KALB", int version, int year, int month, long checkpoint id,
+ *                  int first epoch day, int number of days, int number of records
+ *     day table    (days + 1) ints: index of the first record of each day, then the total
+ *     records      12 bytes each, sorted by day and time: short minute, short duration in minutes,
+ *                  int offset and int length of the description in the string section
+ *     strings      the descriptions in UTF-8
+ *     rules        int number of repeating appointments, then for each an int length and that many bytes of
+ *                  {@link Recurrence#csvFormat()} in UTF-8
+ *     trailer      int position of the rules section
+ * </pre>
+ * The duration used to be an unused short that was always written as 0, which reads as an appointment without
+ * one, so files written before durations existed read the same. Version 1 files end after the strings and have
+ * no rules.
+ */
+class BinaryCalendarFile {
+
+    /**
+     * First four bytes of a binary calendar file
+     */
+    static final int MAGIC = 0x4B414C42; // "KALB"
+
+    /**
+     * Version of the layout written by this class
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Size of the fixed part of the header
+     */
+    private static final int HEADER_BYTES = 36;
+
+    /**
+     * Size of one record
+     */
+    private static final int RECORD_BYTES = 12;
+
+    /**
+     * The whole file, mapped
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The month stored in the header
+     */
+    private final YearMonth month;
+
+    /**
+     * The checkpoint the file was written at, or 0
+     */
+    private final long checkpointId;
+
+    /**
+     * Epoch day of the first entry in the day table
+     */
+    private final int firstDay;
+
+    /**
+     * Number of entries in the day table
+     */
+    private final int dayCount;
+
+    /**
+     * Where the records start
+     */
+    private final int recordsAt;
+
+    /**
+     * Where the string section starts
+     */
+    private final int stringsAt;
+
+    /**
+     * Where the rules section starts, or -1 for a file without one
+     */
+    private final int rulesAt;
+
+
+    /**
+     * Map a binary calendar file and read its header.
+     * @param path the file
+     * @throws IOException if the file cannot be mapped or is not a binary calendar
+     */
+    BinaryCalendarFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too big to map");
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (this.buffer.limit() < HEADER_BYTES || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a binary calendar");
+        }
+        int version = this.buffer.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException(path + " has unknown version " + version);
+        }
+        this.month = YearMonth.of(this.buffer.getInt(8), this.buffer.getInt(12));
+        this.checkpointId = this.buffer.getLong(16);
+        this.firstDay = this.buffer.getInt(24);
+        this.dayCount = this.buffer.getInt(28);
+        int records = this.buffer.getInt(32);
+        this.recordsAt = HEADER_BYTES + (this.dayCount + 1) * 4;
+        this.stringsAt = this.recordsAt + records * RECORD_BYTES;
+        if (this.stringsAt > this.buffer.limit()) {
+            throw new IOException(path + " is cut short");
+        }
+        if (version == 1) {
+            this.rulesAt = -1;
+        } else {
+            int limit = this.buffer.limit();
+            this.rulesAt = limit >= this.stringsAt + 8 ? this.buffer.getInt(limit - 4) : -1;
+            if (this.rulesAt < this.stringsAt || this.rulesAt > limit - 8) {
+                throw new IOException(path + " is cut short");
+            }
+        }
+    }
+
+    /**
+     * Tell whether a file starts like a binary calendar
+     * @param path the file
+     * @return true if the file begins with the magic number
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(4);
+            while (start.hasRemaining() && channel.read(start) >= 0) {
+                //keep reading until four bytes or the end
+            }
+            return !start.hasRemaining() && start.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Return the month stored in the header
+     * @return the month
+     */
+    YearMonth month(){
+        return this.month;
+    }
+
+    /**
+     * Return the checkpoint the file was written at
+     * @return the checkpoint id, or 0
+     */
+    long checkpointId(){
+        return this.checkpointId;
+    }
+
+    /**
+     * Return the epoch day of the first entry in the day table
+     * @return the first day
+     */
+    int firstDay(){
+        return this.firstDay;
+    }
+
+    /**
+     * Return the number of entries in the day table
+     * @return the number of days
+     */
+    int dayCount(){
+        return this.dayCount;
+    }
+
+    /**
+     * Return how many appointments a day of the table has, without decoding them
+     * @param index position of the day in the table
+     * @return the number of records of that day
+     */
+    int count(int index){
+        return this.buffer.getInt(HEADER_BYTES + (index + 1) * 4) - this.buffer.getInt(HEADER_BYTES + index * 4);
+    }
+
+    /**
+     * Decode the repeating appointments
+     * @return the rules, in the order they were written
+     */
+    List<Recurrence> rules(){
+        List<Recurrence> rules = new ArrayList<>();
+        if (this.rulesAt < 0) {
+            return rules;
+        }
+        int count = this.buffer.getInt(this.rulesAt);
+        int at = this.rulesAt + 4;
+        for (int i = 0; i < count; i++) {
+            int length = this.buffer.getInt(at);
+            byte[] bytes = new byte[length];
+            this.buffer.get(at + 4, bytes);
+            rules.add(Recurrence.fromString(new String(bytes, StandardCharsets.UTF_8)));
+            at += 4 + length;
+        }
+        return rules;
+    }
+
+    /**
+     * Decode the appointments of one day.
+     * @param epochDay the day
+     * @return a new slot holding them
+     */
+    DaySlot readDay(int epochDay){
+        int index = epochDay - this.firstDay;
+        int first = this.buffer.getInt(HEADER_BYTES + index * 4);
+        int last = this.buffer.getInt(HEADER_BYTES + (index + 1) * 4);
+        DaySlot day = new DaySlot();
+        byte[] bytes = new byte[64];
+        for (int record = first; record < last; record++) {
+            int at = this.recordsAt + record * RECORD_BYTES;
+            int offset = this.buffer.getInt(at + 4);
+            int length = this.buffer.getInt(at + 8);
+            if (length > bytes.length) {
+                bytes = new byte[length];
+            }
+            this.buffer.get(this.stringsAt + offset, bytes, 0, length);
+            day.insert(this.buffer.getShort(at), new String(bytes, 0, length, StandardCharsets.UTF_8),
+                    this.buffer.getShort(at + 2), 0);
+        }
+        return day;
+    }
+
+    /**
+     * Write every appointment of a store in the binary format.
+     * @param store the appointments
+     * @param month the month to record in the header
+     * @param checkpointId the checkpoint id to record, or 0
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void write(CalendarStore store, YearMonth month, long checkpointId, Path path) throws IOException {
+        //take each day once, so the counts in the header match what is written even if the store is changing
+        List<DaySlot> taken = new ArrayList<>();
+        List<Integer> takenDays = new ArrayList<>();
+        int records = 0;
+        for (int epochDay = store.nextDay(Integer.MIN_VALUE); epochDay != CalendarStore.NO_DAY;
+             epochDay = store.nextDay(epochDay + 1)) {
+            DaySlot day = store.slot(epochDay);
+            if (day != null) {
+                taken.add(day);
+                takenDays.add(epochDay);
+                records += day.size();
+            }
+        }
+        int firstDay = taken.isEmpty() ? 0 : takenDays.get(0);
+        int dayCount = taken.isEmpty() ? 0 : takenDays.get(takenDays.size() - 1) - firstDay + 1;
+        long recordsAt = HEADER_BYTES + (dayCount + 1) * 4L;
+        long stringsAt = recordsAt + (long) records * RECORD_BYTES;
+
+        //header, day table and records go out through one channel, strings through another one further on
+        try (FileChannel main = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                 StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel text = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            text.position(stringsAt);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(main)));
+            BufferedOutputStream strings = new BufferedOutputStream(Channels.newOutputStream(text));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(month.getYear());
+            out.writeInt(month.getMonthValue());
+            out.writeLong(checkpointId);
+            out.writeInt(firstDay);
+            out.writeInt(dayCount);
+            out.writeInt(records);
+
+            int[] sizes = new int[dayCount];
+            int[] table = new int[dayCount + 1];
+            DaySlot[] days = new DaySlot[dayCount];
+            for (int t = 0; t < taken.size(); t++) {
+                int i = takenDays.get(t) - firstDay;
+                days[i] = taken.get(t);
+                sizes[i] = days[i].size();
+            }
+            for (int i = 0; i < dayCount; i++) {
+                table[i + 1] = table[i] + sizes[i];
+            }
+            for (int start : table) {
+                out.writeInt(start);
+            }
+
+            int offset = 0;
+            for (int i = 0; i < dayCount; i++) {
+                for (int r = 0; r < sizes[i]; r++) {
+                    byte[] bytes = days[i].textAt(r).getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(days[i].minuteAt(r));
+                    out.writeShort(days[i].durationAt(r));
+                    out.writeInt(offset);
+                    out.writeInt(bytes.length);
+                    strings.write(bytes);
+                    offset += bytes.length;
+                }
+            }
+            //the rules and the trailer follow the strings, through the same channel
+            DataOutputStream rules = new DataOutputStream(strings);
+            List<Recurrence> all = store.rules();
+            rules.writeInt(all.size());
+            for (Recurrence rule : all) {
+                byte[] bytes = rule.csvFormat().getBytes(StandardCharsets.UTF_8);
+                rules.writeInt(bytes.length);
+                rules.write(bytes);
+            }
+            rules.writeInt(Math.toIntExact(stringsAt + offset));
+            out.flush();
+            rules.flush();
+            main.force(false);
+        }
+    }
+
+}
@@ -1,16 +1,45 @@
 package calendar.model;
 
 import edu.rit.cs.Observer;
-import java.io.File;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.ObjectName;
 
 
 /**
  * Calendar class is the backbone for representing a Calendar represntation. Its functionality inclues
  * adding and removing appointments.
  *
+ * A Calendar shows one month, but it is only a view over a {@link CalendarStore} that can hold years of
+ * appointments. Dates given as plain ints are days of the viewed month; {@link #view(YearMonth)} gives
+ * views of other months over the same appointments, and the LocalDate methods reach any day directly.
+ *
+ * A Calendar made with concurrent set to true can be read and changed by many threads at once. Reads never
+ * block, and writes only wait for other writes to the same day.
+ *
+ * A Calendar read from a file can be journaled with {@link #enableJournal(int)}. Then every change is appended
+ * to a journal next to the file, saving only makes sure the journal is on the disk, and the whole file is
+ * rewritten only at a checkpoint.
+ *
+ * {@link #registerMetrics()} shows how often the operations on a calendar run and how long they take through
+ * JMX, see {@link CalendarMetricsMBean}. Slow operations and every load and save are also flight recorder
+ * events, see {@link CalendarEvents}.
  *
  * @author Abhishek Yadav
  */
@@ -19,74 +48,194 @@ public class Calendar {
 
 
     /**
-     * Static Calendar object is created so that it can be used in KalGUI.
+     * How many journal records a save lets pile up before it writes a checkpoint instead
      */
-    private static Calendar kal;
+    private static final int CHECKPOINT_RECORDS = 10_000;
     private int monthsize;
     /**
-     * Create a list of observers to be used for Calendar class
+     * The month this Calendar shows
      */
-    private List<Observer<Calendar>> observers = new ArrayList<>();
+    private final YearMonth month;
+    /**
+     * Epoch day of the first day of the month, so date d of the month is epoch day firstDay + d - 1
+     */
+    private final int firstDay;
+    /**
+     * Create a list of observers to be used for Calendar class. Observers can be added while another thread
+     * is notifying them.
+     */
+    private List<Observer<Calendar>> observers = new CopyOnWriteArrayList<>();
+    /**
+     * The changes held back by a {@link #batch(Runnable)} running on each thread
+     */
+    private final ThreadLocal<List<CalendarChange>> pending = new ThreadLocal<>();
     /**
      * After reading from a file, the file name is stored so that it can later be overwritten
      */
-    private static String saveFile;
+    private String saveFile;
+    /**
+     * Whether the save file is in the binary format of {@link BinaryCalendarFile}
+     */
+    private boolean binary;
     /**
-     * A HashMap linking the date to the appointment object is used for addition and removal of appointment.
+     * The appointments of every day, shared with the other month views of this calendar. Every day keeps its
+     * appointments in sorted primitive columns, so reading a day never has to sort it and no Appointment
+     * objects are kept around.
      */
-    private HashMap<Integer,ArrayList<Appointment>> appointments = new HashMap<>();
+    private final CalendarStore store;
 
 
     /**
-     * Constructor for a Calendar, takes in the number of days in the month
+     * Constructor for a Calendar, takes in the number of days in the month. Month files from before
+     * calendars knew their month only give the size, so the month is taken from {@link #legacyMonth(int)}.
      * @param monthsize integer in the range 28-31
      */
     public Calendar(int monthsize){
-        this.monthsize=monthsize;
+        this(legacyMonth(monthsize));
+
+    }
+
+    /**
+     * Constructor for an empty Calendar showing the given month
+     * @param month the month to show
+     */
+    public Calendar(YearMonth month){
+        this(month, false);
+    }
+
+    /**
+     * Constructor for an empty Calendar showing the given month
+     * @param month the month to show
+     * @param concurrent true if the calendar will be used by several threads at once
+     */
+    public Calendar(YearMonth month, boolean concurrent){
+        this(new CalendarStore(concurrent), month);
+    }
 
+    /**
+     * Constructor for a month view over an existing store
+     * @param store the appointments
+     * @param month the month to show
+     */
+    private Calendar(CalendarStore store, YearMonth month){
+        this.store = store;
+        this.month = month;
+        this.monthsize = month.lengthOfMonth();
+        this.firstDay = Math.toIntExact(month.atDay(1).toEpochDay());
+    }
+
+    /**
+     * Pick the month that a calendar given only its size stands for: the first month from January 2020 on
+     * with that many days. The choice is fixed so that old month files always land on the same dates.
+     * @param monthsize integer in the range 28-31
+     * @return the month
+     */
+    static YearMonth legacyMonth(int monthsize){
+        switch (monthsize) {
+            case 28: return YearMonth.of(2021, Month.FEBRUARY);
+            case 29: return YearMonth.of(2020, Month.FEBRUARY);
+            case 30: return YearMonth.of(2020, Month.APRIL);
+            case 31: return YearMonth.of(2020, Month.JANUARY);
+            default: throw new IllegalArgumentException("A month cannot have " + monthsize + " days");
+        }
+    }
+
+    /**
+     * Return a view of another month of this calendar. The view shares its appointments with this one.
+     * @param month the month to show
+     * @return a Calendar for that month
+     */
+    public Calendar view(YearMonth month){
+        Calendar view = new Calendar(this.store, month);
+        view.saveFile = this.saveFile;
+        return view;
+    }
+
+    /**
+     * Return the month this calendar shows
+     * @return the month
+     */
+    public YearMonth getMonth(){
+        return this.month;
     }
 
     /**
      * This class reads date, time and description of appointment from a file and also stores its name for future
      * reference in toFile.
+     *
+     * The first line of the file is the month, like 2020-02, or for older files just the number of days in it.
+     * Each other line is an appointment whose date is either a day of that month or, for other months, an
+     * ISO date like 2020-03-15. An appointment that lasts a while has its duration in minutes as a fourth
+     * column, which older files simply do not have, after its description in quotes; a description is also
+     * quoted when it has a comma in it, and one that is not quoted stops at the first comma as it always did.
+     * A repeating appointment is one line starting with #repeat, followed by {@link Recurrence#csvFormat()}.
+     * A file written at a checkpoint of a journaled calendar has a #checkpoint line after the month, and the
+     * journal kept since that checkpoint is replayed on top of the file and then kept on with, so the
+     * calendar read is journaled again, forcing changes to the disk only when it is saved until
+     * {@link #enableJournal(int)} says otherwise.
+     *
+     * Text files are cut into chunks at line breaks and the chunks are parsed in parallel, see
+     * {@link CalendarLoader}. Files written by {@link #toBinaryFile(String)} are recognized and mapped into
+     * memory instead, and their days are only decoded when they are first used.
      * @param fileName refers to the name of the file that is to be saved
      * @return a Calendar object that contains all the appointment details
      * @throws IOException if the file does not exist
      */
 
     public static Calendar fromFile(String fileName) throws IOException {
+        return fromFile(fileName, false);
+    }
+
+    /**
+     * Read a calendar from a file as {@link #fromFile(String)} does.
+     * @param fileName refers to the name of the file that is to be saved
+     * @param concurrent true if the calendar will be used by several threads at once
+     * @return a Calendar object that contains all the appointment details
+     * @throws IOException if the file does not exist
+     */
+    public static Calendar fromFile(String fileName, boolean concurrent) throws IOException {
 
-        saveFile = fileName;
         if (fileName.equals("NONE")) {
-            saveFile=null;
-            kal = new Calendar(28);
-            return kal;
+            return new Calendar(legacyMonth(28), concurrent);
+        }
 
+        Calendar kal;
+        CalendarEvents.Load event = new CalendarEvents.Load();
+        event.begin();
+        if (BinaryCalendarFile.isBinary(Path.of(fileName))) {
+            BinaryCalendarFile file = new BinaryCalendarFile(Path.of(fileName));
+            kal = new Calendar(file.month(), concurrent);
+            kal.saveFile = fileName;
+            kal.binary = true;
+            kal.store.attach(file);
+            if (file.checkpointId() != 0) {
+                kal.store.setJournal(
+                        CalendarJournal.reopen(CalendarJournal.pathFor(fileName), file.checkpointId(), kal.store));
+            }
+            kal.store.markSaved(kal.store.changes());
+            event.finish(fileName, kal, true);
+            return kal;
 
         } else {
-            try {
-                Scanner calFile = new Scanner(new File(fileName));
-                int monthsize = calFile.nextInt();
-                calFile.nextLine();
-                kal = new Calendar(monthsize);
-
-                while (calFile.hasNext()) {
-                    String s = calFile.nextLine();
-                    kal.add(Appointment.fromString(s));
-
-                }
-                return kal;
-
-            } catch (NumberFormatException nfe) {
-                throw new IOException(nfe);
+            CalendarLoader loader = new CalendarLoader(Path.of(fileName));
+            kal = new Calendar(loader.month(), concurrent);
+            kal.saveFile = fileName;
+            loader.loadInto(kal.store);
+            if (loader.checkpointId() != 0) {
+                kal.store.setJournal(
+                        CalendarJournal.reopen(CalendarJournal.pathFor(fileName), loader.checkpointId(), kal.store));
             }
+            kal.store.markSaved(kal.store.changes());
+            event.finish(fileName, kal, false);
+            return kal;
         }
     }
 
 
     /**
      * This method is used to write appointments to a file, the same one that was used to read the appointments
-     * initially.
+     * initially. If the calendar is journaled, only the journal is forced to the disk, unless it has grown
+     * long enough that a checkpoint is written instead.
      * @throws IOException if the file does not exist.
      */
 
@@ -95,61 +244,471 @@ public class Calendar {
         if (this.saveFile == null) {
             throw new IOException("Calendar not loaded from a file");
         }
-        try (PrintWriter calFile = new PrintWriter(this.saveFile)) {
-            calFile.println(monthsize);
-            for (int date = 1; date <= this.monthsize; date++) {
-                for (Appointment appointment : appointmentsOn(date)) {
-                    calFile.println(appointment.csvFormat());
+        //changes made while saving may or may not make it into the file, so they still count as unsaved
+        CalendarMetrics metrics = this.store.metrics();
+        CalendarEvents.Save event = new CalendarEvents.Save();
+        event.begin();
+        long start = metrics.start();
+        long changes = this.store.changes();
+        CalendarJournal journal = this.store.journal();
+        if (journal == null) {
+            writeFile(0);
+            event.finish(this.saveFile, "file", this.store.size(), Path.of(this.saveFile));
+        } else if (journal.records() < CHECKPOINT_RECORDS) {
+            journal.sync();
+            event.finish(this.saveFile, "journal", this.store.size(), CalendarJournal.pathFor(this.saveFile));
+        } else {
+            checkpoint();
+            event.finish(this.saveFile, "checkpoint", this.store.size(), Path.of(this.saveFile));
+        }
+        this.store.markSaved(changes);
+        metrics.saved(start);
+    }
 
-                }
+    /**
+     * Tell whether this calendar (or another month view of it) has changed since it was read or saved.
+     * @return true if there are unsaved changes
+     */
+    public boolean isDirty(){
+        return this.store.isDirty();
+    }
+
+    /**
+     * Return the number of appointments in every month of this calendar. A repeating appointment may have no
+     * end, so its occurrences are not counted here; see {@link #recurrences()}.
+     * @return the appointment count
+     */
+    public int size(){
+        return this.store.size();
+    }
+
+    /**
+     * Start timing the operations on this calendar (and its other month views) and show the counts and times
+     * as a platform MBean, so jconsole or a JMX scraper can watch a running calendar. The name is
+     * calendar.model:type=CalendarMetrics,name= the file the calendar was read from, or its month.
+     * @return the name the metrics are registered under
+     * @throws IllegalStateException if the platform MBean server refuses them
+     */
+    public ObjectName registerMetrics(){
+        return this.store.metrics().register(this.saveFile != null ? this.saveFile : this.month.toString());
+    }
+
+    /**
+     * Stop timing the operations on this calendar and take its MBean away
+     */
+    public void unregisterMetrics(){
+        this.store.metrics().unregister();
+    }
+
+    /**
+     * Return the counts and times of the operations on this calendar, the same ones its MBean shows. Only the
+     * sizes and the observer count are kept up until {@link #registerMetrics()} is called.
+     * @return the metrics
+     */
+    public CalendarMetricsMBean getMetrics(){
+        return this.store.metrics();
+    }
+
+    /**
+     * Start journaling changes to this calendar (and its other month views). A checkpoint is written first so
+     * that the journal starts out empty. A calendar that is journaled already, like one read back from a
+     * checkpoint, keeps its journal and only takes the new syncEvery.
+     * @param syncEvery how many changes may be journaled before they are forced to the disk; 0 means only when
+     *                  the calendar is saved
+     * @throws IOException if the calendar was not read from a file, or the files cannot be written
+     */
+    public void enableJournal(int syncEvery) throws IOException {
+        if (this.saveFile == null) {
+            throw new IOException("Calendar not loaded from a file");
+        }
+        synchronized (this.store) {
+            if (this.store.journal() != null) {
+                this.store.journal().syncEvery(syncEvery);
+                return;
+            }
+            this.store.lockAll();
+            try {
+                long checkpointId = newCheckpointId();
+                writeFile(checkpointId);
+                this.store.setJournal(
+                        new CalendarJournal(CalendarJournal.pathFor(this.saveFile), checkpointId, syncEvery));
+            } finally {
+                this.store.unlockAll();
             }
+        }
+    }
 
+    /**
+     * Rewrite the whole file and start the journal over. Changes wait until the checkpoint is done.
+     * @throws IOException if the calendar is not journaled, or the files cannot be written
+     */
+    public void checkpoint() throws IOException {
+        synchronized (this.store) {
+            CalendarJournal journal = this.store.journal();
+            if (journal == null) {
+                throw new IOException("Calendar is not journaled");
+            }
+            this.store.lockAll();
+            try {
+                long checkpointId = newCheckpointId();
+                writeFile(checkpointId);
+                journal.restart(checkpointId);
+            } finally {
+                this.store.unlockAll();
+            }
         }
     }
 
+    /**
+     * Stop journaling, making sure the journal is on the disk first. The file and its journal still load
+     * together later.
+     * @throws IOException if the journal cannot be written
+     */
+    public void closeJournal() throws IOException {
+        synchronized (this.store) {
+            CalendarJournal journal = this.store.journal();
+            if (journal != null) {
+                this.store.setJournal(null);
+                journal.close();
+            }
+        }
+    }
 
     /**
-     * Returns a list of appointments on the date that is specified by the user as a parameter
-     * @param date an int value for which the appointments are to be returned
-     * @return an arraylist of appointments
+     * Make up an id for a checkpoint, never 0 since that marks a file that has no journal.
+     * @return the id
      */
-    public ArrayList<Appointment> appointmentsOn(int date){
-        try {
-            Collections.sort(appointments.get(date));
-            return this.kal.appointments.get(date);
-        }catch (NullPointerException ne){
-            ArrayList<Appointment> ap = new ArrayList<>();
+    private static long newCheckpointId(){
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Write every appointment in the binary format to a file that {@link #fromFile(String)} maps into memory.
+     * This does not change which file {@link #toFile()} saves to.
+     * @param fileName the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void toBinaryFile(String fileName) throws IOException {
+        writeFile(Path.of(fileName), true, 0);
+    }
+
+    /**
+     * Write every appointment in the store to the save file, in the format it was read in.
+     * @param checkpointId the checkpoint id to record in the file, or 0 for none
+     * @throws IOException if the file cannot be written
+     */
+    private void writeFile(long checkpointId) throws IOException {
+        writeFile(Path.of(this.saveFile), this.binary, checkpointId);
+    }
 
-            return ap;
+    /**
+     * Write every appointment in the store to a file. The file is written beside the old one and then moved
+     * over it, so a crash never leaves half a file.
+     * @param target the file to write
+     * @param binary true for the binary format, false for text
+     * @param checkpointId the checkpoint id to record in the file, or 0 for none
+     * @throws IOException if the file cannot be written
+     */
+    private void writeFile(Path target, boolean binary, long checkpointId) throws IOException {
+        //month views share the file, so only one of them may write it at a time
+        synchronized (this.store) {
+            Path temp = Path.of(target + ".tmp");
+            if (binary) {
+                BinaryCalendarFile.write(this.store, this.month, checkpointId, temp);
+            } else {
+                writeText(temp, checkpointId);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         }
+    }
 
+    /**
+     * Write every appointment in the store in the text format read by {@link #fromFile(String)}.
+     * @param temp the file to write
+     * @param checkpointId the checkpoint id to record in the file, or 0 for none
+     * @throws IOException if the file cannot be written
+     */
+    private void writeText(Path temp, long checkpointId) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+             PrintWriter calFile = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(stream, StandardCharsets.UTF_8)))) {
+            calFile.println(this.month);
+            if (checkpointId != 0) {
+                calFile.println(CalendarLoader.CHECKPOINT + checkpointId);
+            }
+            for (Recurrence rule : this.store.rules()) {
+                calFile.println(CalendarLoader.REPEAT + rule.csvFormat());
+            }
+            //write straight from the day columns, the same layout and quoting as Appointment.csvFormat, for
+            //every day in the store; days outside this month get their full ISO date
+            for (int epochDay = this.store.nextDay(Integer.MIN_VALUE); epochDay != CalendarStore.NO_DAY;
+                 epochDay = this.store.nextDay(epochDay + 1)) {
+                DaySlot day = this.store.slot(epochDay);
+                int date = epochDay - this.firstDay + 1;
+                String dateField = date >= 1 && date <= this.monthsize ?
+                        Integer.toString(date) : LocalDate.ofEpochDay(epochDay).toString();
+                for (int i = 0; day != null && i < day.size(); i++) {
+                    calFile.print(dateField);
+                    calFile.print(',');
+                    Time.of(day.minuteAt(i)).formatTo(calFile);
+                    calFile.print(',');
+                    day.writeText(i, day.durationAt(i) > 0, calFile);
+                    if (day.durationAt(i) > 0) {
+                        calFile.print(',');
+                        calFile.print(day.durationAt(i));
+                    }
+                    calFile.println();
+                }
+            }
+            calFile.flush();
+            if (calFile.checkError()) {
+                throw new IOException("Could not write " + temp);
+            }
+            stream.getChannel().force(false);
+        }
     }
 
 
     /**
-     * This method creates an Observer and adds it to the list of observers in calendar.
-     * @param observer
+     * Returns a list of appointments on the date that is specified by the user as a parameter. The list is a
+     * read-only view of the day, already in order of time, so nothing is copied or sorted here. Repeating
+     * appointments that fall on the day are merged in after the others at the same time, and only then is the
+     * day copied. Unless the calendar is concurrent, the view is live and fails fast: after the day changes,
+     * using it throws ConcurrentModificationException, so copy it first to remove appointments while going
+     * through it.
+     * @param date an int value for which the appointments are to be returned
+     * @return a read-only list of appointments, empty if there are none on that date
+     */
+    public List<Appointment> appointmentsOn(int date){
+        if (date < 1 || date > this.monthsize) {
+            return Collections.emptyList();
+        }
+        return readDay(this.firstDay + date - 1);
+
+    }
+
+    /**
+     * Returns a read-only list of appointments on any day, in this month or not, repeating ones included.
+     * @param date the day
+     * @return a read-only list of appointments, whose dates are days of that day's month
+     */
+    public List<Appointment> appointmentsOn(LocalDate date){
+        return readDay(Math.toIntExact(date.toEpochDay()));
+    }
+
+    /**
+     * Read a day from the store, counting and timing the read
+     * @param epochDay the day
+     * @return a read-only list of appointments
+     */
+    private List<Appointment> readDay(int epochDay){
+        CalendarMetrics metrics = this.store.metrics();
+        CalendarEvents.DayRead event = new CalendarEvents.DayRead();
+        event.begin();
+        long start = metrics.start();
+        List<Appointment> appointments = this.store.appointments(epochDay);
+        metrics.read(start);
+        event.finish(epochDay, appointments.size());
+        return appointments;
+    }
+
+
+    /**
+     * Returns the appointments from one date and time through another, both ends included, in order.
+     * @param fromDate the first date, a day of this month (days past either end run into the next or previous
+     *                 month)
+     * @param fromTime the earliest time on fromDate
+     * @param toDate the last date
+     * @param toTime the latest time on toDate
+     * @return a new list of the appointments in that range
+     */
+    public List<Appointment> appointmentsBetween(int fromDate, Time fromTime, int toDate, Time toTime){
+        return appointmentsBetween(fromDate, fromTime, toDate, toTime, true);
+    }
+
+    /**
+     * Returns the appointments from one date and time up to another, in order, with the occurrences of
+     * repeating appointments in the range merged in. With includeEnd false the range is half-open, so
+     * consecutive windows that share an end point never repeat an appointment, which is what paging through a
+     * calendar needs.
+     * @param fromDate the first date, a day of this month (days past either end run into the next or previous
+     *                 month)
+     * @param fromTime the earliest time on fromDate, included
+     * @param toDate the last date
+     * @param toTime the end time on toDate
+     * @param includeEnd whether appointments at exactly toTime on toDate are included
+     * @return a new list of the appointments in that range
+     */
+    public List<Appointment> appointmentsBetween(int fromDate, Time fromTime, int toDate, Time toTime,
+                                                 boolean includeEnd){
+        List<Appointment> found = new ArrayList<>();
+        this.store.collect(this.firstDay + fromDate - 1, fromTime.getMinutes(),
+                this.firstDay + toDate - 1, toTime.getMinutes(), includeEnd, found);
+        return found;
+    }
+
+    /**
+     * Returns the appointments from one day and time up to another on any days, in order.
+     * @param from the first day
+     * @param fromTime the earliest time on that day, included
+     * @param to the last day
+     * @param toTime the end time on that day
+     * @param includeEnd whether appointments at exactly toTime on the last day are included
+     * @return a new list of the appointments in that range, dated with days of their own months
+     */
+    public List<Appointment> appointmentsBetween(LocalDate from, Time fromTime, LocalDate to, Time toTime,
+                                                 boolean includeEnd){
+        List<Appointment> found = new ArrayList<>();
+        this.store.collect(Math.toIntExact(from.toEpochDay()), fromTime.getMinutes(),
+                Math.toIntExact(to.toEpochDay()), toTime.getMinutes(), includeEnd, found);
+        return found;
+    }
+
+
+    /**
+     * Find the appointments of this month whose descriptions have every word of a query, in any case. Words
+     * are runs of letters and digits, so "Dentist, 3pm" has the words dentist and 3pm. The descriptions are
+     * indexed on the first search and the index is kept up to date from then on, so later searches cost
+     * about the number of appointments with the rarest word of the query.
+     * @param terms the words to look for
+     * @return the appointments, in order of date and time; empty if terms has no words
+     */
+    public List<Appointment> find(String terms){
+        return this.store.search(terms, this.firstDay, this.firstDay + this.monthsize - 1);
+    }
+
+    /**
+     * Find the appointments from one day to another, in this month or not, whose descriptions have every word
+     * of a query, as {@link #find(String)} does.
+     * @param terms the words to look for
+     * @param from the first day
+     * @param to the last day, included
+     * @return the appointments, dated with days of their own month, in order of date and time
+     */
+    public List<Appointment> find(String terms, LocalDate from, LocalDate to){
+        return this.store.search(terms, Math.toIntExact(from.toEpochDay()), Math.toIntExact(to.toEpochDay()));
+    }
+
+    /**
+     * Count the appointments on each day of this month, without building any Appointment objects.
+     * @return the counts indexed by date, so index 0 is always 0
+     */
+    public int[] appointmentCounts(){
+        int[] counts = new int[this.monthsize + 1];
+        int[] days = new int[this.monthsize];
+        this.store.countDays(this.firstDay, days);
+        System.arraycopy(days, 0, counts, 1, this.monthsize);
+        return counts;
+    }
+
+    /**
+     * Count the appointments on each day from one date to another, in this month or not, without building any
+     * Appointment objects. Only days with appointments are visited, so a year costs little more than a month.
+     * @param from the first day
+     * @param to the last day, included
+     * @return the counts, with the count of from at index 0
+     */
+    public int[] appointmentCounts(LocalDate from, LocalDate to){
+        long length = to.toEpochDay() - from.toEpochDay() + 1;
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot count from " + from + " to " + to);
+        }
+        int[] counts = new int[(int) length];
+        this.store.countDays(Math.toIntExact(from.toEpochDay()), counts);
+        return counts;
+    }
+
+    /**
+     * This method creates an Observer and adds it to the list of observers in calendar. Observers are told
+     * about changes made through this Calendar with a {@link CalendarDelta} as the second argument.
+     * @param observer the observer
      */
     public void addObserver(Observer<Calendar> observer){
      this.observers.add(observer);
+     this.store.metrics().observerAdded();
 
 
     }
 
+    /**
+     * Make several changes and notify the observers only once, with one delta covering all of them. Changes
+     * that cancel out, like adding an appointment and removing it again, are left out of the delta. Batches
+     * can be nested; the observers are notified when the outermost one ends.
+     * @param changes the changes to make, using this Calendar on the current thread
+     */
+    public void batch(Runnable changes){
+        if (this.pending.get() != null) {
+            changes.run();
+            return;
+        }
+        List<CalendarChange> collected = new ArrayList<>();
+        this.pending.set(collected);
+        try {
+            changes.run();
+        } finally {
+            this.pending.remove();
+            if (!collected.isEmpty()) {
+                notifyObserver(new CalendarDelta(collected));
+            }
+        }
+    }
+
+    /**
+     * Hand changes to the observers, or hold them back if a batch is running on this thread.
+     * @param changes what changed
+     */
+    private void publish(List<CalendarChange> changes){
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<CalendarChange> collected = this.pending.get();
+        if (collected != null) {
+            collected.addAll(changes);
+        } else {
+            notifyObserver(new CalendarDelta(changes));
+        }
+    }
+
+    /**
+     * Hand one change to the observers, if there was one
+     * @param change what changed, or null
+     * @return true if something changed
+     */
+    private boolean publish(CalendarChange change){
+        if (change == null) {
+            return false;
+        }
+        publish(List.of(change));
+        return true;
+    }
 
     /**
-     * Notifies the observer if a change is detected, this is used in KalGUI class.
-     * @param ob referring to Observer
+     * Tell every observer what changed.
+     * @param delta the changes
      */
-    private void notifyObserver(Object ob){
-        if(ob instanceof Observer){
-            Observer observer = (Observer) ob;
-            observer.update(this,observer);
+    private void notifyObserver(CalendarDelta delta){
+        if (delta.isEmpty()) {
+            return;
         }
+        CalendarMetrics metrics = this.store.metrics();
+        CalendarEvents.Notify event = new CalendarEvents.Notify();
+        event.begin();
+        long start = metrics.start();
+        int observers = 0;
+        for (Observer<Calendar> observer : this.observers) {
+            observer.update(this, delta);
+            observers++;
+        }
+        metrics.notified(start);
+        event.finish(this, observers, delta.size());
     }
 
     /**
-     * Used in KalGUI to return the number of days in the model
+     * Used in KalGUI to return the number of days in the month this calendar shows
      * @return
      */
     public int numDays(){
@@ -160,19 +719,215 @@ public class Calendar {
     /**
      * One of two add methods that adds the specified appointment paramter to the calendar
      * @param appointment the appointment that is to be added.
+     * @return the id the calendar gave the appointment
      */
-    public void add(Appointment appointment){
-        if(appointments.get(appointment.getDate())!=null) {
-            appointments.get(appointment.getDate()).add(0,appointment);
-        }else{
-            ArrayList<Appointment> a = new ArrayList<>();
-            a.add(appointment);
+    public long add(Appointment appointment){
+        int date = appointment.getDate();
+        if (date < 1 || date > this.monthsize) {
+            throw new IllegalArgumentException("No date " + date + " in a month of " + this.monthsize + " days");
+        }
+        return add(this.month.atDay(date), appointment.getTime(), appointment.getText(), appointment.getDuration());
+    }
 
-            appointments.put(appointment.getDate(),a);
+    /**
+     * Adds an appointment on any day, in this month or not.
+     * @param date the day of the appointment
+     * @param time time of the appointment
+     * @param what description of the appointment
+     * @return the id the calendar gave the appointment
+     */
+    public long add(LocalDate date, Time time, String what){
+        return add(date, time, what, 0);
+    }
 
+    /**
+     * Adds an appointment that lasts a while on any day, whatever else is booked then. Use
+     * {@link #book(LocalDate, Time, String, int)} to add it only if the time is free.
+     * @param date the day of the appointment
+     * @param time time of the appointment
+     * @param what description of the appointment
+     * @param duration how many minutes it lasts, or 0 if it only has a start
+     * @return the id the calendar gave the appointment
+     * @throws IllegalArgumentException if the duration is negative or runs past midnight
+     */
+    public long add(LocalDate date, Time time, String what, int duration){
+        checkDuration(time, duration);
+        CalendarMetrics metrics = this.store.metrics();
+        CalendarEvents.Add event = new CalendarEvents.Add();
+        event.begin();
+        long start = metrics.start();
+        long id = this.store.add(Math.toIntExact(date.toEpochDay()), time.getMinutes(), what, duration);
+        metrics.added(start);
+        event.finish(date, time, duration, id);
+        Appointment appointment = new Appointment(date.getDayOfMonth(), time, what, duration, id);
+        publish(List.of(new CalendarChange(CalendarChange.Kind.ADDED, date, appointment, null)));
+        return id;
+    }
+
+    /**
+     * Adds an appointment only if it overlaps nothing already booked on its day. Checking and adding happen
+     * together, so in a concurrent calendar two threads cannot both book the same time.
+     * @param appointment the appointment, dated with a day of this month
+     * @return the appointments it overlaps, in order of time; empty if it was added
+     * @throws IllegalArgumentException if the date is not a day of this month
+     */
+    public List<Appointment> book(Appointment appointment){
+        int date = appointment.getDate();
+        if (date < 1 || date > this.monthsize) {
+            throw new IllegalArgumentException("No date " + date + " in a month of " + this.monthsize + " days");
         }
+        return book(this.month.atDay(date), appointment.getTime(), appointment.getText(), appointment.getDuration());
+    }
 
-        notifyObserver(appointment);
+    /**
+     * Adds an appointment on any day only if it overlaps nothing already booked on that day.
+     * @param date the day of the appointment
+     * @param time time of the appointment
+     * @param what description of the appointment
+     * @param duration how many minutes it lasts, or 0 if it only has a start
+     * @return the appointments it overlaps, in order of time; empty if it was added
+     * @throws IllegalArgumentException if the duration is negative or runs past midnight
+     */
+    public List<Appointment> book(LocalDate date, Time time, String what, int duration){
+        checkDuration(time, duration);
+        List<Appointment> conflicts = new ArrayList<>();
+        CalendarMetrics metrics = this.store.metrics();
+        CalendarEvents.Add event = new CalendarEvents.Add();
+        event.begin();
+        long start = metrics.start();
+        long id = this.store.addIfFree(Math.toIntExact(date.toEpochDay()), time.getMinutes(), what, duration,
+                conflicts);
+        event.finish(date, time, duration, id);
+        if (id != 0) {
+            metrics.added(start);
+            Appointment appointment = new Appointment(date.getDayOfMonth(), time, what, duration, id);
+            publish(List.of(new CalendarChange(CalendarChange.Kind.ADDED, date, appointment, null)));
+        }
+        return conflicts;
+    }
+
+    /**
+     * Find what is booked during some time of a day of this month. An appointment without a duration counts as
+     * taking its first minute, so it conflicts with anything that covers that minute.
+     * @param date the day, 1 to the size of the month
+     * @param start when the time starts
+     * @param duration how many minutes it lasts; 0 asks about the start minute alone
+     * @return the appointments that overlap it, in order of time
+     * @throws IllegalArgumentException if the duration is negative or runs past midnight
+     */
+    public List<Appointment> conflictsWith(int date, Time start, int duration){
+        if (date < 1 || date > this.monthsize) {
+            return Collections.emptyList();
+        }
+        return conflictsWith(this.month.atDay(date), start, duration);
+    }
+
+    /**
+     * Find what is booked during some time of any day. Each day keeps its appointments in an interval tree, so
+     * this costs a logarithm of the size of the day plus the number of conflicts, not a comparison with every
+     * appointment of the day.
+     * @param date the day
+     * @param start when the time starts
+     * @param duration how many minutes it lasts; 0 asks about the start minute alone
+     * @return the appointments that overlap it, dated with days of their own month, in order of time
+     * @throws IllegalArgumentException if the duration is negative or runs past midnight
+     */
+    public List<Appointment> conflictsWith(LocalDate date, Time start, int duration){
+        checkDuration(start, duration);
+        List<Appointment> conflicts = new ArrayList<>();
+        this.store.conflicts(Math.toIntExact(date.toEpochDay()), start.getMinutes(),
+                start.getMinutes() + Math.max(duration, 1), conflicts);
+        return conflicts;
+    }
+
+    /**
+     * Find what else is booked while an appointment of this month takes place. An appointment read from this
+     * calendar does not conflict with itself.
+     * @param appointment the appointment, dated with a day of this month
+     * @return the other appointments that overlap it, in order of time
+     */
+    public List<Appointment> conflictsWith(Appointment appointment){
+        List<Appointment> conflicts = new ArrayList<>(
+                conflictsWith(appointment.getDate(), appointment.getTime(), appointment.getDuration()));
+        if (appointment.getId() != 0) {
+            conflicts.removeIf(other -> other.getId() == appointment.getId());
+        }
+        return conflicts;
+    }
+
+    /**
+     * Find the free time from one day to another, in this month or not: every run of minutes that no
+     * appointment or occurrence takes and that lasts at least a given length. An appointment without a
+     * duration takes its first minute. Each day keeps a bitmap of its taken minutes, 23 longs, and the runs are
+     * found a word at a time, so a day costs the same however many appointments it has.
+     * @param from the first day
+     * @param to the last day, included
+     * @param minLength the fewest minutes a slot must have
+     * @return the free slots, in order of date and time
+     * @throws IllegalArgumentException if to is before from, or minLength is not from 1 to 1440
+     */
+    public List<FreeSlot> findFreeSlots(LocalDate from, LocalDate to, int minLength){
+        return findFreeSlots(from, to, Time.of(0), Time.MINS_PER_DAY, minLength);
+    }
+
+    /**
+     * Find the free time from one day to another within the same hours of each day, as
+     * {@link #findFreeSlots(LocalDate, LocalDate, int)} does. A slot is cut off at either end of the hours.
+     * @param from the first day
+     * @param to the last day, included
+     * @param dayStart the start of the hours to look at on each day
+     * @param dayLength how many minutes the hours last, running at most to midnight
+     * @param minLength the fewest minutes a slot must have
+     * @return the free slots, in order of date and time
+     * @throws IllegalArgumentException if to is before from, the hours run past midnight, or minLength is not
+     *                                  from 1 to 1440
+     */
+    public List<FreeSlot> findFreeSlots(LocalDate from, LocalDate to, Time dayStart, int dayLength,
+                                        int minLength){
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("Cannot look from " + from + " to " + to);
+        }
+        if (minLength < 1 || minLength > Time.MINS_PER_DAY) {
+            throw new IllegalArgumentException("Not a length of free time: " + minLength);
+        }
+        checkDuration(dayStart, dayLength);
+        List<FreeSlot> slots = new ArrayList<>();
+        this.store.freeSlots(Math.toIntExact(from.toEpochDay()), Math.toIntExact(to.toEpochDay()),
+                dayStart.getMinutes(), dayStart.getMinutes() + dayLength, minLength, slots);
+        return slots;
+    }
+
+    /**
+     * Find the first free time of a day of this month that lasts at least a given length
+     * @param date the day, 1 to the size of the month
+     * @param minLength the fewest minutes needed
+     * @return the earliest such slot, or null if the day has none or is not in the month
+     * @throws IllegalArgumentException if minLength is not from 1 to 1440
+     */
+    public FreeSlot firstFreeSlot(int date, int minLength){
+        if (date < 1 || date > this.monthsize) {
+            return null;
+        }
+        List<FreeSlot> slots = findFreeSlots(this.month.atDay(date), this.month.atDay(date), minLength);
+        return slots.isEmpty() ? null : slots.get(0);
+    }
+
+    /**
+     * Check that an appointment starting at a time can last a number of minutes
+     * @param time the start
+     * @param duration the length in minutes
+     * @throws IllegalArgumentException if the time is not a time of day, or the duration is negative or runs
+     *                                  past midnight
+     */
+    private static void checkDuration(Time time, int duration){
+        int minute = time.getMinutes();
+        if (minute < 0 || minute >= Time.MINS_PER_DAY) {
+            throw new IllegalArgumentException("Not a time of day: " + time);
+        }
+        if (duration < 0 || minute + duration > Time.MINS_PER_DAY) {
+            throw new IllegalArgumentException("An appointment at " + time + " cannot last " + duration +
+                    " minutes");
+        }
     }
 
     /**
@@ -182,41 +937,319 @@ public class Calendar {
      * @param date referring to the date of the appointment
      * @param time time of the appointment
      * @param what description of the appointment
+     * @return the id the calendar gave the appointment
+     */
+    public long add(int date, Time time, String what){
+
+        return add(new Appointment(date,time,what));
+    }
+
+    /**
+     * Adds many appointments at once, as {@link #applyBatch(Collection, Collection)} does.
+     * @param appointments the appointments to add, dated with days of this month
      */
-    public void add(int date, Time time, String what){
+    public void addAll(Collection<Appointment> appointments){
+        applyBatch(appointments, Collections.emptyList());
+    }
 
-        Appointment appointment = new Appointment(date,time,what);
-        System.out.println("on "+date+" "+time+" "+what);
-        add(appointment);
-        notifyObserver(appointment);
+    /**
+     * Adds every appointment of a stream at once, as {@link #applyBatch(Collection, Collection)} does.
+     * @param appointments the appointments to add, dated with days of this month
+     */
+    public void addAll(Stream<Appointment> appointments){
+        addAll(appointments.collect(Collectors.toList()));
     }
 
     /**
-     * Removes appointment from the Calendar
+     * Removes and adds many appointments at once. The changes are sorted by day and time once, each day is
+     * changed in a single merge under a single lock, and the observers get one delta for the whole batch.
+     * Removals are applied first, and like {@link #remove(Appointment)} each one takes away every appointment
+     * at its date and time; then the additions are made. Every addition is checked before anything changes.
+     * @param adds the appointments to add, dated with days of this month
+     * @param removes the appointments to remove, dated with days of this month
+     * @throws IllegalArgumentException if an addition is not on a day of this month or its time is not a time of
+     *                                  day
+     */
+    public void applyBatch(Collection<Appointment> adds, Collection<Appointment> removes){
+        int[] days = new int[adds.size()];
+        short[] minutes = new short[adds.size()];
+        String[] texts = new String[adds.size()];
+        short[] durations = null;
+        int count = 0;
+        for (Appointment appointment : adds) {
+            int date = appointment.getDate();
+            int minute = appointment.getTime().getMinutes();
+            if (date < 1 || date > this.monthsize) {
+                throw new IllegalArgumentException("No date " + date + " in a month of " + this.monthsize + " days");
+            }
+            if (minute < 0 || minute >= Time.MINS_PER_DAY) {
+                throw new IllegalArgumentException("Not a time of day: " + appointment.getTime());
+            }
+            days[count] = this.firstDay + date - 1;
+            minutes[count] = (short) minute;
+            texts[count] = appointment.getText();
+            if (appointment.getDuration() != 0) {
+                checkDuration(appointment.getTime(), appointment.getDuration());
+                if (durations == null) {
+                    durations = new short[adds.size()];
+                }
+                durations[count] = (short) appointment.getDuration();
+            }
+            count++;
+        }
+
+        int[] removeDays = new int[removes.size()];
+        short[] removeMinutes = new short[removes.size()];
+        int removeCount = 0;
+        for (Appointment appointment : removes) {
+            int date = appointment.getDate();
+            int minute = appointment.getTime().getMinutes();
+            if (date >= 1 && date <= this.monthsize && minute >= 0 && minute < Time.MINS_PER_DAY) {
+                removeDays[removeCount] = this.firstDay + date - 1;
+                removeMinutes[removeCount] = (short) minute;
+                removeCount++;
+            }
+        }
+
+        List<Appointment> removed = new ArrayList<>();
+        if (removeCount > 0) {
+            this.store.removeAll(removeDays, removeMinutes,
+                    CalendarStore.sortByDay(removeDays, removeMinutes, removeCount), removeCount, removed);
+        }
+        long[] ids = count == 0 ? new long[0] :
+                this.store.addAll(days, minutes, texts, durations, CalendarStore.sortByDay(days, minutes, count),
+                        count);
+
+        List<CalendarChange> changes = new ArrayList<>(removed.size() + count);
+        for (Appointment appointment : removed) {
+            changes.add(new CalendarChange(CalendarChange.Kind.REMOVED, this.month.atDay(appointment.getDate()),
+                    appointment, null));
+        }
+        int i = 0;
+        for (Appointment appointment : adds) {
+            changes.add(new CalendarChange(CalendarChange.Kind.ADDED, this.month.atDay(appointment.getDate()),
+                    new Appointment(appointment.getDate(), appointment.getTime(), appointment.getText(),
+                            appointment.getDuration(), ids[i++]), null));
+        }
+        publish(changes);
+    }
+
+    /**
+     * Removes appointment from the Calendar. An appointment read from this calendar, which has an id, is removed
+     * on its own, and an occurrence of a repeating appointment is skipped on its date; any other appointment
+     * takes away the appointments at its date and time that have its text and duration. To take away every
+     * appointment at a time, see {@link #removeAt(int, Time)}.
      * @param toremove appoinrment that is to be removed
      */
     public void remove(Appointment toremove){
 
-       toremove.setRemoved(true);
-
        int toRemoveDate= toremove.getDate();
-        ArrayList <Appointment> appointment=appointments.get(toRemoveDate);
-        ArrayList<Appointment> new_appointment = new ArrayList<>();
+       if (toRemoveDate < 1 || toRemoveDate > this.monthsize) {
+           return;
+       }
+       int epochDay = this.firstDay + toRemoveDate - 1;
+       long id = toremove.getId();
+       if (toremove.isRecurring()) {
+           skip(id, this.month.atDay(toRemoveDate));
+           return;
+       }
+       if (id != 0 && this.store.dayOf(id) == epochDay && toremove.equals(this.store.find(id))) {
+           remove(id);
+           return;
+       }
+       List<Appointment> removed = new ArrayList<>();
+       CalendarMetrics metrics = this.store.metrics();
+       CalendarEvents.Remove event = new CalendarEvents.Remove();
+       event.begin();
+       long start = metrics.start();
+       this.store.removeEqual(epochDay, toremove.getTime().getMinutes(), toremove.getText(),
+               toremove.getDuration(), removed);
+       metrics.removed(start);
+       event.finish(this.month.atDay(toRemoveDate), removed.size());
+       publishRemoved(toRemoveDate, removed);
 
-       for(int i=0;i<appointments.get(toRemoveDate).size();i++){
-           if(appointment.get(i).getTime().compareTo(toremove.getTime())!=0){
-               new_appointment.add(appointment.get(i));
+    }
 
-           }else{
-               //
-           }
-       }
+    /**
+     * Remove every appointment at a date and time, whatever its text
+     * @param date a day of this month
+     * @param time the time
+     */
+    public void removeAt(int date, Time time){
+        if (date < 1 || date > this.monthsize) {
+            return;
+        }
+        List<Appointment> removed = new ArrayList<>();
+        CalendarMetrics metrics = this.store.metrics();
+        CalendarEvents.Remove event = new CalendarEvents.Remove();
+        event.begin();
+        long start = metrics.start();
+        this.store.removeAll(this.firstDay + date - 1, time.getMinutes(), removed);
+        metrics.removed(start);
+        event.finish(this.month.atDay(date), removed.size());
+        publishRemoved(date, removed);
+    }
 
-       appointments.put(toRemoveDate,new_appointment);
+    /**
+     * Tell the observers about appointments removed from a day
+     * @param date the day of this month
+     * @param removed the appointments
+     */
+    private void publishRemoved(int date, List<Appointment> removed){
         //NOTIFY THE OBSERVER AS YOU REMOVE AN APPOINTMENT
-       notifyObserver(toremove);
+        List<CalendarChange> changes = new ArrayList<>(removed.size());
+        for (Appointment appointment : removed) {
+            changes.add(new CalendarChange(CalendarChange.Kind.REMOVED, this.month.atDay(date), appointment, null));
+        }
+        publish(changes);
+    }
+
+    /**
+     * Add an appointment that repeats. Only the rule is kept, however long it runs; its occurrences are worked
+     * out for the days each query covers. Observers are told about the occurrences in this month.
+     * @param rule the rule
+     * @return the id the calendar gave the rule, which is also the id of each of its occurrences
+     */
+    public long addRecurrence(Recurrence rule){
+        long id = this.store.addRule(rule);
+        publish(occurrenceChanges(rule.withId(id), CalendarChange.Kind.ADDED));
+        return id;
+    }
 
+    /**
+     * Find a repeating appointment by its id
+     * @param id the id from {@link Recurrence#getId()}, or of one of its occurrences
+     * @return the rule, or null if there is none
+     */
+    public Recurrence getRecurrence(long id){
+        return this.store.rule(id);
     }
+
+    /**
+     * Return every repeating appointment
+     * @return a new list of the rules, in the order they were added
+     */
+    public List<Recurrence> recurrences(){
+        return this.store.rules();
+    }
+
+    /**
+     * Remove a repeating appointment with all of its occurrences. Observers are told about the occurrences in
+     * this month.
+     * @param id the id of the rule
+     * @return true if there was such a rule
+     */
+    public boolean removeRecurrence(long id){
+        Recurrence rule = this.store.removeRule(id);
+        if (rule == null) {
+            return false;
+        }
+        publish(occurrenceChanges(rule, CalendarChange.Kind.REMOVED));
+        return true;
+    }
+
+    /**
+     * Skip one occurrence of a repeating appointment, leaving the others as they are
+     * @param id the id of the rule
+     * @param date the date of the occurrence
+     * @return true if the rule had an occurrence on that date
+     */
+    public boolean skip(long id, LocalDate date){
+        Recurrence rule = this.store.rule(id);
+        if (rule == null || !rule.occursOn(date)) {
+            return false;
+        }
+        if (this.store.replaceRule(id, rule.except(date)) == null) {
+            return false;
+        }
+        int epochDay = Math.toIntExact(date.toEpochDay());
+        publish(List.of(new CalendarChange(CalendarChange.Kind.REMOVED, date, rule.occurrence(epochDay), null)));
+        return true;
+    }
+
+    /**
+     * Describe the occurrences of a rule in this month as changes for the observers
+     * @param rule the rule
+     * @param kind ADDED or REMOVED
+     * @return a change for each occurrence in this month
+     */
+    private List<CalendarChange> occurrenceChanges(Recurrence rule, CalendarChange.Kind kind){
+        List<CalendarChange> changes = new ArrayList<>();
+        int lastDay = this.firstDay + this.monthsize - 1;
+        for (int day = rule.next(this.firstDay); day != Recurrence.NO_DAY && day <= lastDay; day = rule.next(day + 1)) {
+            changes.add(new CalendarChange(kind, LocalDate.ofEpochDay(day), rule.occurrence(day), null));
+        }
+        return changes;
+    }
+
+    /**
+     * Find an appointment by its id, in this month or not
+     * @param id the id from {@link Appointment#getId()}
+     * @return the appointment, dated with a day of its own month, or null if there is none
+     */
+    public Appointment get(long id){
+        return this.store.find(id);
+    }
+
+    /**
+     * Remove exactly one appointment, found by its id without searching any day
+     * @param id the id from {@link Appointment#getId()}
+     * @return true if there was such an appointment
+     */
+    public boolean remove(long id){
+        CalendarMetrics metrics = this.store.metrics();
+        CalendarEvents.Remove event = new CalendarEvents.Remove();
+        event.begin();
+        long start = metrics.start();
+        CalendarChange change = this.store.remove(id);
+        metrics.removed(start);
+        event.finish(change == null ? null : change.getDate(), change == null ? 0 : 1);
+        return publish(change);
+    }
+
+    /**
+     * Change the description of an appointment, keeping its id, date and time
+     * @param id the id from {@link Appointment#getId()}
+     * @param what the new description
+     * @return true if there was such an appointment
+     */
+    public boolean update(long id, String what){
+        return publish(this.store.update(id, Objects.requireNonNull(what)));
+    }
+
+    /**
+     * Move an appointment to another date and time of this month, keeping its id and description
+     * @param id the id from {@link Appointment#getId()}
+     * @param date the new date, a day of this month
+     * @param time the new time
+     * @return true if there was such an appointment
+     * @throws IllegalArgumentException if the date is not in this month, the time is not a time of day, or the
+     *                                  appointment would run past midnight from there
+     */
+    public boolean move(long id, int date, Time time){
+        if (date < 1 || date > this.monthsize) {
+            throw new IllegalArgumentException("No date " + date + " in a month of " + this.monthsize + " days");
+        }
+        return move(id, this.month.atDay(date), time);
+    }
+
+    /**
+     * Move an appointment to another day and time, in this month or not, keeping its id and description
+     * @param id the id from {@link Appointment#getId()}
+     * @param date the new day
+     * @param time the new time
+     * @return true if there was such an appointment
+     * @throws IllegalArgumentException if the time is not a time of day, or the appointment would run past
+     *                                  midnight from there
+     */
+    public boolean move(long id, LocalDate date, Time time){
+        int minute = time.getMinutes();
+        if (minute < 0 || minute >= Time.MINS_PER_DAY) {
+            throw new IllegalArgumentException("Not a time of day: " + time);
+        }
+        return publish(this.store.move(id, Math.toIntExact(date.toEpochDay()), minute));
+    }
+
     /**
      * Return the size of the month in the calendar, used in KalGUI
      * @return
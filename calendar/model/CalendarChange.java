@@ -0,0 +1,161 @@
+package calendar.model;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * CalendarChange describes one change to a calendar: an appointment that was added, removed, or changed in
+ * place. Observers receive changes in a {@link CalendarDelta}, so they can update what they show without
+ * asking the calendar for whole days again.
+ */
+public final class CalendarChange {
+
+    /**
+     * What happened to the appointment
+     */
+    public enum Kind { ADDED, REMOVED, CHANGED }
+
+    /**
+     * What happened
+     */
+    private final Kind kind;
+
+    /**
+     * The full date of the appointment, since its date field is only a day of the month
+     */
+    private final LocalDate date;
+
+    /**
+     * The appointment added or removed, or the new version of a changed one
+     */
+    private final Appointment appointment;
+
+    /**
+     * The full date of the old version of a changed appointment, the same as date for the other kinds
+     */
+    private final LocalDate previousDate;
+
+    /**
+     * The old version of a changed appointment, null for the other kinds
+     */
+    private final Appointment previous;
+
+
+    /**
+     * Create a change
+     * @param kind what happened
+     * @param date the full date of the appointment
+     * @param appointment the appointment, or the new version of a changed one
+     * @param previous the old version of a changed appointment, or null
+     */
+    CalendarChange(Kind kind, LocalDate date, Appointment appointment, Appointment previous){
+        this(kind, date, appointment, date, previous);
+    }
+
+    /**
+     * Create a change to an appointment that may have moved to another day
+     * @param kind what happened
+     * @param date the full date of the appointment
+     * @param appointment the appointment, or the new version of a changed one
+     * @param previousDate the full date of the old version
+     * @param previous the old version of a changed appointment, or null
+     */
+    CalendarChange(Kind kind, LocalDate date, Appointment appointment, LocalDate previousDate,
+                   Appointment previous){
+        this.kind = kind;
+        this.date = date;
+        this.appointment = appointment;
+        this.previousDate = previousDate;
+        this.previous = previous;
+    }
+
+    /**
+     * Return what happened
+     * @return the kind of change
+     */
+    public Kind getKind(){
+        return this.kind;
+    }
+
+    /**
+     * Return the full date of the appointment
+     * @return the date
+     */
+    public LocalDate getDate(){
+        return this.date;
+    }
+
+    /**
+     * Return the appointment added or removed, or the new version of a changed one
+     * @return the appointment
+     */
+    public Appointment getAppointment(){
+        return this.appointment;
+    }
+
+    /**
+     * Return the full date the old version of a changed appointment was on
+     * @return the previous date, the same as {@link #getDate()} unless the appointment moved to another day
+     */
+    public LocalDate getPreviousDate(){
+        return this.previousDate;
+    }
+
+    /**
+     * Return the old version of a changed appointment
+     * @return the previous appointment, or null unless the kind is CHANGED
+     */
+    public Appointment getPrevious(){
+        return this.previous;
+    }
+
+    /**
+     * Tell whether this change undoes an earlier one, an addition followed by the removal of the same
+     * appointment
+     * @param earlier the earlier change
+     * @return true if the two cancel out
+     */
+    boolean cancels(CalendarChange earlier){
+        if (this.kind != Kind.REMOVED || earlier.kind != Kind.ADDED) {
+            return false;
+        }
+        long id = this.appointment.getId();
+        if (id != 0 && earlier.appointment.getId() != 0) {
+            //the occurrences of a rule share its id, so only the one on the same date cancels
+            return id == earlier.appointment.getId()
+                    && (!this.appointment.isRecurring() || this.date.equals(earlier.date));
+        }
+        return this.date.equals(earlier.date)
+                && this.appointment.getTime().equals(earlier.appointment.getTime())
+                && this.appointment.getText().equals(earlier.appointment.getText());
+    }
+
+    /**
+     * A key that is equal for changes to the same appointment: its id, or if it has none, its date, time and
+     * text. An occurrence of a rule is keyed by the rule's id and its date.
+     * @return the key
+     */
+    Object key(){
+        long id = this.appointment.getId();
+        if (id != 0) {
+            return this.appointment.isRecurring() ? List.of(id, this.date) : id;
+        }
+        return Objects.hash(this.date, this.appointment.getTime(), this.appointment.getText());
+    }
+
+    /**
+     * Describe the change
+     * @return something like "added on 3 10:00----dentist"
+     */
+    @Override
+    public String toString(){
+        switch (this.kind) {
+            case ADDED: return "added " + this.appointment;
+            case REMOVED: return "removed " + this.appointment;
+            default: return "changed " + this.previous + " to " + this.appointment;
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package calendar.model;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+/**
+ * CalendarDelta is what a Calendar hands its observers: every change from one mutation, or from a whole batch
+ * of them, in the order they happened. An appointment that was added and then removed again within the batch
+ * is left out, so a big import or a burst of edits arrives as one compact delta instead of one
+ * notification per appointment.
+ */
+public final class CalendarDelta {
+
+    /**
+     * The changes, in order
+     */
+    private final List<CalendarChange> changes;
+
+
+    /**
+     * Create a delta from the changes of a batch, dropping pairs that cancel out
+     * @param changes the changes, in order
+     */
+    CalendarDelta(List<CalendarChange> changes){
+        this.changes = Collections.unmodifiableList(compact(changes));
+    }
+
+    /**
+     * Drop every addition that a later removal in the same list undoes, along with that removal and any
+     * changes to the appointment in between.
+     * @param changes the changes, in order
+     * @return the changes that remain, in order
+     */
+    private static List<CalendarChange> compact(List<CalendarChange> changes){
+        boolean[] dropped = new boolean[changes.size()];
+        Map<Object, Deque<Integer>> added = new HashMap<>();
+        Map<Long, List<Integer>> changed = new HashMap<>();
+        int drops = 0;
+        for (int i = 0; i < changes.size(); i++) {
+            CalendarChange change = changes.get(i);
+            long id = change.getAppointment().getId();
+            if (change.getKind() == CalendarChange.Kind.ADDED) {
+                added.computeIfAbsent(change.key(), k -> new ArrayDeque<>()).push(i);
+            } else if (change.getKind() == CalendarChange.Kind.CHANGED) {
+                if (id != 0) {
+                    changed.computeIfAbsent(id, k -> new ArrayList<>()).add(i);
+                }
+            } else {
+                Deque<Integer> candidates = added.get(change.key());
+                if (candidates != null) {
+                    for (Integer earlier : candidates) {
+                        if (change.cancels(changes.get(earlier))) {
+                            candidates.remove(earlier);
+                            dropped[earlier] = true;
+                            dropped[i] = true;
+                            drops += 2;
+                            for (int between : changed.getOrDefault(id, Collections.emptyList())) {
+                                if (between > earlier && !dropped[between]) {
+                                    dropped[between] = true;
+                                    drops++;
+                                }
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if (drops == 0) {
+            return new ArrayList<>(changes);
+        }
+        List<CalendarChange> kept = new ArrayList<>(changes.size() - drops);
+        for (int i = 0; i < changes.size(); i++) {
+            if (!dropped[i]) {
+                kept.add(changes.get(i));
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Return the changes
+     * @return a read-only list of the changes, in the order they happened
+     */
+    public List<CalendarChange> changes(){
+        return this.changes;
+    }
+
+    /**
+     * Return the dates that have changes, including the days that changed appointments moved away from
+     * @return the dates, in order
+     */
+    public Set<LocalDate> dates(){
+        Set<LocalDate> dates = new TreeSet<>();
+        for (CalendarChange change : this.changes) {
+            dates.add(change.getDate());
+            dates.add(change.getPreviousDate());
+        }
+        return dates;
+    }
+
+    /**
+     * Return the number of changes
+     * @return the size of the delta
+     */
+    public int size(){
+        return this.changes.size();
+    }
+
+    /**
+     * Tell whether nothing changed in the end
+     * @return true if every change was cancelled out
+     */
+    public boolean isEmpty(){
+        return this.changes.isEmpty();
+    }
+
+    /**
+     * Describe the delta
+     * @return the changes, one per line
+     */
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        for (CalendarChange change : this.changes) {
+            sb.append(change).append('\n');
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,274 @@
+package calendar.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+
+/**
+ * CalendarEvents are the flight recorder events of the calendar, so a stalled save or a frozen window can be
+ * lined up with garbage collection and I/O in JDK Mission Control. Each operation makes its event and calls
+ * begin before it runs and one of the finish methods after; when the recorder is off, or the operation took
+ * less than the event's threshold, nothing is filled in and nothing is written, and the JIT drops the event
+ * object altogether.
+ *
+ * Each event has a default threshold here, low enough for a file operation to always be recorded and for a
+ * day read or an edit only to be recorded when it is slow. Like any event's, the thresholds can be changed in
+ * the .jfc settings a recording is started with, for example
+ * {@code <event name="calendar.Add"><setting name="threshold">100 us</setting></event>}, or with
+ * {@link jdk.jfr.Recording#enable(String)}.
+ */
+final class CalendarEvents {
+
+    /**
+     * The category every event is shown under
+     */
+    private static final String CATEGORY = "Calendar";
+
+    /**
+     * Not to be made; the events are nested classes
+     */
+    private CalendarEvents(){
+    }
+
+    /**
+     * Find the size of a file for an event, which is only worth doing once the event is going to be recorded
+     * @param file the file
+     * @return its size in bytes, or -1 if it cannot be read
+     */
+    private static long size(Path file){
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A calendar read from a file
+     */
+    @Name("calendar.Load")
+    @Label("Calendar Load")
+    @Category(CATEGORY)
+    @Description("A calendar read with Calendar.fromFile")
+    @Threshold("0 ms")
+    static final class Load extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Binary")
+        boolean binary;
+
+        @Label("Appointments")
+        int appointments;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        /**
+         * End the event and record it if it is wanted
+         * @param file the file read
+         * @param calendar the calendar read from it
+         * @param binary whether the file is in the binary format
+         */
+        void finish(String file, Calendar calendar, boolean binary){
+            end();
+            if (shouldCommit()) {
+                this.file = file;
+                this.binary = binary;
+                this.appointments = calendar.size();
+                this.bytes = size(Path.of(file));
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A calendar saved with toFile: a whole file written, a checkpoint, or only the journal forced to the disk
+     */
+    @Name("calendar.Save")
+    @Label("Calendar Save")
+    @Category(CATEGORY)
+    @Description("A calendar saved with Calendar.toFile")
+    @Threshold("0 ms")
+    static final class Save extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Kind")
+        @Description("file, checkpoint, or journal when only the journal was synced")
+        String kind;
+
+        @Label("Appointments")
+        int appointments;
+
+        @Label("Bytes Written")
+        @Description("The size of the file written, or of the journal synced")
+        @DataAmount
+        long bytes;
+
+        /**
+         * End the event and record it if it is wanted
+         * @param file the file saved to
+         * @param kind what the save did
+         * @param appointments how many appointments the calendar has
+         * @param written the file written or synced
+         */
+        void finish(String file, String kind, int appointments, Path written){
+            end();
+            if (shouldCommit()) {
+                this.file = file;
+                this.kind = kind;
+                this.appointments = appointments;
+                this.bytes = size(written);
+                commit();
+            }
+        }
+    }
+
+    /**
+     * An appointment added
+     */
+    @Name("calendar.Add")
+    @Label("Appointment Add")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Add extends Event {
+        @Label("Date")
+        String date;
+
+        @Label("Time")
+        String time;
+
+        @Label("Length")
+        @Description("Minutes the appointment lasts")
+        int minutes;
+
+        @Label("Id")
+        long id;
+
+        /**
+         * End the event and record it if it is wanted
+         * @param date the day of the appointment
+         * @param time its time
+         * @param duration its length in minutes
+         * @param id the id it was given, 0 if it was not added
+         */
+        void finish(LocalDate date, Time time, int duration, long id){
+            end();
+            if (shouldCommit()) {
+                this.date = date.toString();
+                this.time = time.toString();
+                this.minutes = duration;
+                this.id = id;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Appointments removed
+     */
+    @Name("calendar.Remove")
+    @Label("Appointment Remove")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Remove extends Event {
+        @Label("Date")
+        String date;
+
+        @Label("Removed")
+        int removed;
+
+        /**
+         * End the event and record it if it is wanted
+         * @param date the day removed from, or null if nothing was found
+         * @param removed how many appointments were removed
+         */
+        void finish(LocalDate date, int removed){
+            end();
+            if (shouldCommit()) {
+                this.date = date == null ? null : date.toString();
+                this.removed = removed;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A day read with appointmentsOn
+     */
+    @Name("calendar.AppointmentsOn")
+    @Label("Day Read")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class DayRead extends Event {
+        @Label("Date")
+        String date;
+
+        @Label("Appointments")
+        int appointments;
+
+        /**
+         * End the event and record it if it is wanted
+         * @param epochDay the day read
+         * @param appointments how many appointments it has, occurrences included
+         */
+        void finish(int epochDay, int appointments){
+            end();
+            if (shouldCommit()) {
+                this.date = LocalDate.ofEpochDay(epochDay).toString();
+                this.appointments = appointments;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A delta handed to the observers of a calendar. A long one is usually a view repainting too much.
+     */
+    @Name("calendar.Notify")
+    @Label("Observer Dispatch")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    static final class Notify extends Event {
+        @Label("Month")
+        String month;
+
+        @Label("Observers")
+        int observers;
+
+        @Label("Changes")
+        int changes;
+
+        /**
+         * End the event and record it if it is wanted
+         * @param calendar the calendar whose observers were told
+         * @param observers how many observers there were
+         * @param changes how many changes the delta had
+         */
+        void finish(Calendar calendar, int observers, int changes){
+            end();
+            if (shouldCommit()) {
+                this.month = calendar.getMonth().toString();
+                this.observers = observers;
+                this.changes = changes;
+                commit();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,384 @@
+package calendar.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+
+/**
+ * CalendarJournal is the append-only log behind a journaled Calendar. Instead of rewriting the whole file
+ * on every save, each change to the store is appended to the journal as a small record, and the full file
+ * is only rewritten at a checkpoint, after which the journal starts over. Loading a calendar reads the last
+ * checkpoint and replays the journal on top of it.
+ *
+ * A journal starts with a magic number and the id of the checkpoint it continues. The checkpoint file carries
+ * the same id, so a journal left over from an older checkpoint is never replayed twice. Records are
+ * <pre>
+ *     '+' epochDay minute text             an appointment was added
+ *     '*' epochDay minute duration text    an appointment that lasts a while was added
+ *     '-' epochDay minute                  every appointment at that minute was removed
+ *     'x' epochDay minute text             the first appointment at that minute with that text and no
+ *                                          duration was removed; older journals wrote it for any duration
+ *     'X' epochDay minute duration text    the first appointment at that minute with that text and duration
+ *                                          was removed
+ *     '&gt;' rule                             a repeating appointment was added, as Recurrence.csvFormat() has it
+ *     '&lt;' rule                             the first repeating appointment equal to that one was removed
+ * </pre>
+ * A record cut short by a crash is ignored on replay, and cut off when the journal is reopened to go on
+ * appending to it. Records are kept in memory until they are synced, so the changes of a session that is
+ * never saved do not reach the journal unless syncEvery forced them out.
+ */
+class CalendarJournal {
+
+    /**
+     * First four bytes of every journal
+     */
+    private static final int MAGIC = 0x4B414C4A; // "KALJ"
+
+    /**
+     * Record type of an added appointment
+     */
+    private static final byte ADD = '+';
+
+    /**
+     * Record type of an added appointment with a duration
+     */
+    private static final byte ADD_LASTING = '*';
+
+    /**
+     * Record type of a removed minute
+     */
+    private static final byte REMOVE = '-';
+
+    /**
+     * Record type of one removed appointment
+     */
+    private static final byte REMOVE_ONE = 'x';
+
+    /**
+     * Record type of one removed appointment with a duration
+     */
+    private static final byte REMOVE_LASTING = 'X';
+
+    /**
+     * Record type of an added rule
+     */
+    private static final byte ADD_RULE = '>';
+
+    /**
+     * Record type of a removed rule
+     */
+    private static final byte REMOVE_RULE = '<';
+
+    /**
+     * Where the journal lives
+     */
+    private final Path path;
+
+    /**
+     * How many records may be written before they are forced to the disk, or 0 to force only on sync
+     */
+    private int syncEvery;
+
+    /**
+     * The open journal
+     */
+    private FileOutputStream file;
+
+    /**
+     * The records written since the last sync
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /**
+     * Typed access to the pending records
+     */
+    private final DataOutputStream out = new DataOutputStream(this.pending);
+
+    /**
+     * Records written since the last force to disk
+     */
+    private int unsynced;
+
+    /**
+     * Records written since the last checkpoint
+     */
+    private int records;
+
+
+    /**
+     * Start a new, empty journal, replacing any journal at that path.
+     * @param path where the journal lives
+     * @param checkpointId id of the checkpoint this journal continues
+     * @param syncEvery how many records may be written before they are forced to the disk, 0 for only on sync
+     * @throws IOException if the journal cannot be created
+     */
+    CalendarJournal(Path path, long checkpointId, int syncEvery) throws IOException {
+        this(path, syncEvery);
+        restart(checkpointId);
+    }
+
+    /**
+     * Make a journal that has no file open yet
+     * @param path where the journal lives
+     * @param syncEvery how many records may be written before they are forced to the disk, 0 for only on sync
+     */
+    private CalendarJournal(Path path, int syncEvery){
+        this.path = path;
+        this.syncEvery = syncEvery;
+    }
+
+    /**
+     * Replay a journal onto a store and open it to go on appending to it, so a calendar read back from a
+     * checkpoint stays journaled instead of rewriting its whole file on the next save. A record cut short at
+     * the end is cut off first. The journal only forces records to the disk on sync until told otherwise with
+     * {@link #syncEvery(int)}.
+     * @param path where the journal lives
+     * @param checkpointId id of the checkpoint the store was loaded from
+     * @param store the store to change
+     * @return the journal, or null if there is none that continues the checkpoint
+     * @throws IOException if the journal cannot be read or opened
+     */
+    static CalendarJournal reopen(Path path, long checkpointId, CalendarStore store) throws IOException {
+        CalendarJournal journal = new CalendarJournal(path, 0);
+        long length = journal.load(checkpointId, store);
+        if (length < 0) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(length);
+        }
+        journal.file = new FileOutputStream(path.toFile(), true);
+        return journal;
+    }
+
+    /**
+     * Change how often records are forced to the disk
+     * @param syncEvery how many records may be written before they are forced to the disk, 0 for only on sync
+     */
+    synchronized void syncEvery(int syncEvery){
+        this.syncEvery = syncEvery;
+    }
+
+    /**
+     * The journal of a calendar file
+     * @param saveFile the calendar file
+     * @return the path of its journal
+     */
+    static Path pathFor(String saveFile){
+        return Path.of(saveFile + ".journal");
+    }
+
+    /**
+     * Throw away the records and start the journal over after a checkpoint.
+     * @param checkpointId id of the new checkpoint
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void restart(long checkpointId) throws IOException {
+        if (this.file != null) {
+            this.file.close();
+        }
+        this.pending.reset();
+        this.file = new FileOutputStream(this.path.toFile());
+        this.out.writeInt(MAGIC);
+        this.out.writeLong(checkpointId);
+        this.unsynced = 0;
+        this.records = 0;
+        sync();
+    }
+
+    /**
+     * Log an added appointment. One without a duration is written as the shorter record journals had before
+     * there were durations.
+     * @param epochDay its day
+     * @param minute its minute of the day
+     * @param what its description
+     * @param duration its length in minutes, or 0
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void added(int epochDay, int minute, String what, int duration) throws IOException {
+        this.out.writeByte(duration == 0 ? ADD : ADD_LASTING);
+        this.out.writeInt(epochDay);
+        this.out.writeShort(minute);
+        if (duration != 0) {
+            this.out.writeShort(duration);
+        }
+        this.out.writeUTF(what);
+        written();
+    }
+
+    /**
+     * Log the removal of every appointment at a minute of a day
+     * @param epochDay the day
+     * @param minute the minute of the day
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void removed(int epochDay, int minute) throws IOException {
+        this.out.writeByte(REMOVE);
+        this.out.writeInt(epochDay);
+        this.out.writeShort(minute);
+        written();
+    }
+
+    /**
+     * Log the removal of one appointment, the first at its minute with its text and duration. One without a
+     * duration is written as the shorter record journals had before there were durations.
+     * @param epochDay the day
+     * @param minute the minute of the day
+     * @param what the description
+     * @param duration its length in minutes, or 0
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void removedOne(int epochDay, int minute, String what, int duration) throws IOException {
+        this.out.writeByte(duration == 0 ? REMOVE_ONE : REMOVE_LASTING);
+        this.out.writeInt(epochDay);
+        this.out.writeShort(minute);
+        if (duration != 0) {
+            this.out.writeShort(duration);
+        }
+        this.out.writeUTF(what);
+        written();
+    }
+
+    /**
+     * Log an added repeating appointment
+     * @param rule the rule, as {@link Recurrence#csvFormat()}
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void ruleAdded(String rule) throws IOException {
+        this.out.writeByte(ADD_RULE);
+        this.out.writeUTF(rule);
+        written();
+    }
+
+    /**
+     * Log a removed repeating appointment. A rule that changed is logged as removed and then added again.
+     * @param rule the rule, as {@link Recurrence#csvFormat()}
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void ruleRemoved(String rule) throws IOException {
+        this.out.writeByte(REMOVE_RULE);
+        this.out.writeUTF(rule);
+        written();
+    }
+
+    /**
+     * Count a record and force the batch to disk once it is big enough.
+     * @throws IOException if the journal cannot be written
+     */
+    private void written() throws IOException {
+        this.records++;
+        this.unsynced++;
+        if (this.syncEvery > 0 && this.unsynced >= this.syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Write out the pending records and make sure every record written so far is on the disk.
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void sync() throws IOException {
+        this.pending.writeTo(this.file);
+        this.pending.reset();
+        this.file.getChannel().force(false);
+        this.unsynced = 0;
+    }
+
+    /**
+     * Return the number of records since the last checkpoint
+     * @return the record count
+     */
+    synchronized int records(){
+        return this.records;
+    }
+
+    /**
+     * Sync and close the journal.
+     * @throws IOException if the journal cannot be written
+     */
+    synchronized void close() throws IOException {
+        sync();
+        this.file.close();
+    }
+
+    /**
+     * Apply the records of this journal's file to a store, counting them, if it continues the given
+     * checkpoint. A journal starts over at every checkpoint, so it is small enough to be read whole.
+     * @param checkpointId id of the checkpoint the store was loaded from
+     * @param store the store to change
+     * @return the length of the journal up to the end of the last whole record, or -1 if there is no journal or
+     *         it does not continue the checkpoint
+     * @throws IOException if the journal cannot be read
+     */
+    private long load(long checkpointId, CalendarStore store) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(this.path);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(stream);
+        long whole = 0;
+        try {
+            if (in.readInt() != MAGIC || in.readLong() != checkpointId) {
+                return -1; //not a journal, or left over from another checkpoint
+            }
+            while (true) {
+                whole = bytes.length - stream.available();
+                int op = in.read();
+                if (op == -1) {
+                    break;
+                }
+                if (op == ADD_RULE || op == REMOVE_RULE) {
+                    Recurrence rule = Recurrence.fromString(in.readUTF());
+                    if (op == ADD_RULE) {
+                        store.addRule(rule);
+                    } else {
+                        store.removeRule(rule);
+                    }
+                    this.records++;
+                    continue;
+                }
+                int epochDay = in.readInt();
+                int minute = in.readShort();
+                if (op == ADD) {
+                    store.add(epochDay, minute, in.readUTF(), 0);
+                } else if (op == ADD_LASTING) {
+                    int duration = in.readShort();
+                    store.add(epochDay, minute, in.readUTF(), duration);
+                } else if (op == REMOVE) {
+                    store.removeAll(epochDay, minute);
+                } else if (op == REMOVE_ONE) {
+                    //older journals wrote this record whatever the duration was
+                    String what = in.readUTF();
+                    if (!store.removeFirst(epochDay, minute, what, 0)) {
+                        store.removeFirst(epochDay, minute, what, -1);
+                    }
+                } else if (op == REMOVE_LASTING) {
+                    int duration = in.readShort();
+                    store.removeFirst(epochDay, minute, in.readUTF(), duration);
+                } else {
+                    throw new IOException("Bad journal record " + op + " in " + this.path);
+                }
+                this.records++;
+            }
+        } catch (EOFException e) {
+            //the last record was cut short: everything before it stands
+            if (whole == 0) {
+                return -1;
+            }
+        }
+        return whole;
+    }
+
+}
@@ -0,0 +1,371 @@
+package calendar.model;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * CalendarLoader reads the text calendar format described at {@link Calendar#fromFile(String)}. The file is
+ * mapped into memory, cut into chunks that end on line breaks, and the chunks are parsed in parallel on the
+ * fork-join pool, each chunk also sorting what it found by day and time. The sorted chunks are then merged into
+ * the store in file order, each day of a chunk in one pass.
+ */
+class CalendarLoader {
+
+    /**
+     * A chunk is never cut smaller than this
+     */
+    private static final int MIN_CHUNK_BYTES = 1 << 16;
+
+    /**
+     * Start of the line that tells which checkpoint a file was written at
+     */
+    static final String CHECKPOINT = "#checkpoint ";
+
+    /**
+     * Start of a line that holds a repeating appointment
+     */
+    static final String REPEAT = "#repeat ";
+
+    /**
+     * The whole file, mapped
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The month named in the first line
+     */
+    private final YearMonth month;
+
+    /**
+     * Epoch day of the first day of that month
+     */
+    private final int firstDay;
+
+    /**
+     * The checkpoint named by a #checkpoint line, or 0
+     */
+    private long checkpointId;
+
+    /**
+     * Where the appointment lines start
+     */
+    private final int bodyStart;
+
+
+    /**
+     * The appointments parsed from one chunk of the file, in file order, and the order that sorts them by day
+     * and time.
+     */
+    private static class Chunk {
+        int size;
+        int[] days = new int[256];
+        short[] minutes = new short[256];
+        String[] texts = new String[256];
+        short[] durations;
+        int[] order;
+        List<Recurrence> rules = new ArrayList<>();
+        long checkpointId;
+        String error;
+
+        void add(int epochDay, int minute, String what, int duration){
+            if (this.size == this.days.length) {
+                this.days = Arrays.copyOf(this.days, this.size * 2);
+                this.minutes = Arrays.copyOf(this.minutes, this.size * 2);
+                this.texts = Arrays.copyOf(this.texts, this.size * 2);
+                if (this.durations != null) {
+                    this.durations = Arrays.copyOf(this.durations, this.size * 2);
+                }
+            }
+            if (duration != 0 && this.durations == null) {
+                //only files that use durations pay for the column
+                this.durations = new short[this.days.length];
+            }
+            this.days[this.size] = epochDay;
+            this.minutes[this.size] = (short) minute;
+            this.texts[this.size] = what;
+            if (this.durations != null) {
+                this.durations[this.size] = (short) duration;
+            }
+            this.size++;
+        }
+    }
+
+    /**
+     * Map a calendar file and read its first line.
+     * @param path the file
+     * @throws IOException if the file cannot be read or has no month line
+     */
+    CalendarLoader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too big to load");
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int end = lineEnd(0);
+        String header = ascii(0, end).trim();
+        if (header.isEmpty()) {
+            throw new IOException(path + " has no month line");
+        }
+        try {
+            if (header.indexOf('-') < 0) {
+                this.month = Calendar.legacyMonth(Integer.parseInt(header));
+            } else {
+                this.month = YearMonth.parse(header);
+            }
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IOException(e);
+        }
+        this.firstDay = Math.toIntExact(this.month.atDay(1).toEpochDay());
+        this.bodyStart = Math.min(end + 1, this.buffer.limit());
+    }
+
+    /**
+     * Return the month named in the first line
+     * @return the month
+     */
+    YearMonth month(){
+        return this.month;
+    }
+
+    /**
+     * Return the checkpoint the file was written at. Only known after {@link #loadInto(CalendarStore)}.
+     * @return the checkpoint id, or 0
+     */
+    long checkpointId(){
+        return this.checkpointId;
+    }
+
+    /**
+     * Parse every appointment line in parallel and add them all to a store.
+     * @param store the store to fill
+     * @throws IOException if a line cannot be parsed
+     */
+    void loadInto(CalendarStore store) throws IOException {
+        int length = this.buffer.limit() - this.bodyStart;
+        int parts = ForkJoinPool.getCommonPoolParallelism() * 4;
+        int chunkBytes = Math.max(MIN_CHUNK_BYTES, length / Math.max(1, parts));
+        List<Chunk> chunks = ForkJoinPool.commonPool().invoke(
+                new ParseTask(this.bodyStart, this.buffer.limit(), chunkBytes));
+        for (Chunk chunk : chunks) {
+            if (chunk.error != null) {
+                throw new IOException("Bad line: " + chunk.error);
+            }
+            if (chunk.checkpointId != 0) {
+                this.checkpointId = chunk.checkpointId;
+            }
+            for (Recurrence rule : chunk.rules) {
+                store.addRule(rule);
+            }
+            store.addAll(chunk.days, chunk.minutes, chunk.texts, chunk.durations, chunk.order, chunk.size);
+        }
+    }
+
+    /**
+     * Splits a range of the file in two at a line break until it is small enough to parse.
+     */
+    private class ParseTask extends RecursiveTask<List<Chunk>> {
+
+        /**
+         * Tasks are never serialized, but ForkJoinTask is Serializable
+         */
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int chunkBytes;
+
+        ParseTask(int from, int to, int chunkBytes){
+            this.from = from;
+            this.to = to;
+            this.chunkBytes = chunkBytes;
+        }
+
+        @Override
+        protected List<Chunk> compute(){
+            if (this.to - this.from > this.chunkBytes) {
+                int middle = Math.min(lineEnd(this.from + (this.to - this.from) / 2) + 1, this.to);
+                if (middle < this.to) {
+                    ParseTask right = new ParseTask(middle, this.to, this.chunkBytes);
+                    right.fork();
+                    List<Chunk> chunks = new ParseTask(this.from, middle, this.chunkBytes).compute();
+                    chunks.addAll(right.join());
+                    return chunks;
+                }
+            }
+            List<Chunk> chunks = new ArrayList<>();
+            chunks.add(parse(this.from, this.to));
+            return chunks;
+        }
+    }
+
+    /**
+     * Parse the lines in one chunk of the file. The chunk is copied out of the mapping once and read through an
+     * ASCII view, so the date and time are parsed where they lie and only descriptions become strings.
+     * @param from first byte of the chunk, the start of a line
+     * @param to the byte after the chunk, the start of a line or the end of the file
+     * @return the appointments found
+     */
+    private Chunk parse(int from, int to){
+        Chunk chunk = new Chunk();
+        byte[] bytes = new byte[to - from];
+        this.buffer.get(from, bytes);
+        CharSequence chars = Chars.ascii(bytes);
+        for (int start = 0; start < bytes.length; ) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                end++;
+            }
+            int line = start;
+            start = end + 1;
+            if (end > line && bytes[end - 1] == '\r') {
+                end--;
+            }
+            if (Chars.skipSpaces(chars, line, end) == end) {
+                continue;
+            }
+            if (startsWith(bytes, line, end, CHECKPOINT)) {
+                try {
+                    chunk.checkpointId = Long.parseLong(chars, line + CHECKPOINT.length(),
+                            Chars.trimSpaces(chars, line, end), 10);
+                } catch (NumberFormatException e) {
+                    chunk.error = new String(bytes, line, end - line, StandardCharsets.UTF_8);
+                    break;
+                }
+                continue;
+            }
+            if (startsWith(bytes, line, end, REPEAT)) {
+                try {
+                    chunk.rules.add(Recurrence.fromString(
+                            new String(bytes, line + REPEAT.length(), end - line - REPEAT.length(),
+                                    StandardCharsets.UTF_8)));
+                } catch (IllegalArgumentException e) {
+                    chunk.error = new String(bytes, line, end - line, StandardCharsets.UTF_8);
+                    break;
+                }
+                continue;
+            }
+
+            int dateEnd = Chars.indexOf(chars, ',', line, end);
+            int timeEnd = dateEnd < 0 ? -1 : Chars.indexOf(chars, ',', dateEnd + 1, end);
+            int epochDay = Chars.NO_DATE;
+            if (timeEnd >= 0) {
+                if (Chars.indexOf(chars, '-', line, dateEnd) >= 0) {
+                    epochDay = Chars.parseEpochDay(chars, line, dateEnd);
+                } else {
+                    int day = Chars.parseNumber(chars, line, dateEnd);
+                    if (day >= 1 && day <= this.month.lengthOfMonth()) {
+                        epochDay = this.firstDay + day - 1;
+                    }
+                }
+            }
+            int minute = timeEnd < 0 ? -1 : Time.parseMinutes(chars, dateEnd + 1, timeEnd);
+            if (epochDay == Chars.NO_DATE || minute < 0) {
+                chunk.error = new String(bytes, line, end - line, StandardCharsets.UTF_8);
+                break;
+            }
+            //only a quoted description can have a duration after it; any other one stops at the next comma, as
+            //it always has
+            int quoteEnd = Chars.quotedEnd(chars, timeEnd + 1, end);
+            int duration = 0;
+            String what;
+            if (quoteEnd < 0) {
+                int textEnd = Chars.indexOf(chars, ',', timeEnd + 1, end);
+                if (textEnd < 0) {
+                    textEnd = end;
+                }
+                what = new String(bytes, timeEnd + 1, textEnd - timeEnd - 1, StandardCharsets.UTF_8);
+            } else {
+                what = Chars.unquote(new String(bytes, timeEnd + 2, quoteEnd - timeEnd - 3, StandardCharsets.UTF_8));
+                int durationEnd = quoteEnd < end ? Chars.indexOf(chars, ',', quoteEnd + 1, end) : -1;
+                if (durationEnd < 0) {
+                    durationEnd = end;
+                }
+                //like Appointment.fromString, a blank duration is none and one that cannot be read is an error
+                if (Chars.skipSpaces(chars, quoteEnd + 1, durationEnd) < durationEnd) {
+                    duration = Chars.parseNumber(chars, quoteEnd + 1, durationEnd);
+                    if (duration < 0 || minute + duration > Time.MINS_PER_DAY) {
+                        chunk.error = new String(bytes, line, end - line, StandardCharsets.UTF_8);
+                        break;
+                    }
+                }
+            }
+            chunk.add(epochDay, minute, what, duration);
+        }
+        chunk.order = CalendarStore.sortByDay(chunk.days, chunk.minutes, chunk.size);
+        return chunk;
+    }
+
+    /**
+     * Tell whether a line starts with some ASCII text
+     * @param bytes the chunk
+     * @param from start of the line
+     * @param to end of the line
+     * @param prefix the text
+     * @return true if the line starts with it
+     */
+    private static boolean startsWith(byte[] bytes, int from, int to, String prefix){
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[from + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the end of the line that a byte belongs to
+     * @param from a byte of the line
+     * @return the position of its line break, or the end of the file
+     */
+    private int lineEnd(int from){
+        int limit = this.buffer.limit();
+        for (int i = from; i < limit; i++) {
+            if (this.buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Copy bytes out of the mapped file, dropping a carriage return at the end
+     * @param from first byte
+     * @param to byte after the last
+     * @return the bytes
+     */
+    private byte[] bytes(int from, int to){
+        if (to > from && this.buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        byte[] bytes = new byte[to - from];
+        this.buffer.get(from, bytes);
+        return bytes;
+    }
+
+    /**
+     * Read a run of plain ASCII bytes as a string
+     * @param from first byte
+     * @param to byte after the last
+     * @return the string
+     */
+    private String ascii(int from, int to){
+        return new String(bytes(from, to), StandardCharsets.US_ASCII);
+    }
+
+}
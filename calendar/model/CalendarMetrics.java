@@ -0,0 +1,439 @@
+package calendar.model;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * CalendarMetrics counts and times the operations on one store, shared by all the month views over it, and
+ * shows them through JMX as a {@link CalendarMetricsMBean}. Until it is registered nothing is timed and an
+ * operation pays for reading one volatile flag; after that it pays for two clock reads and a few
+ * {@link java.util.concurrent.atomic.LongAdder} increments, which do not contend between threads.
+ */
+public final class CalendarMetrics implements CalendarMetricsMBean {
+
+    /**
+     * The domain of the names the metrics are registered under
+     */
+    static final String DOMAIN = "calendar.model";
+
+    /**
+     * Returned by {@link #start()} when nothing is being timed
+     */
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /**
+     * The store being measured
+     */
+    private final CalendarStore store;
+
+    /**
+     * Whether operations are being timed
+     */
+    private volatile boolean enabled;
+
+    /**
+     * The name the metrics are registered under, or null if they are not
+     */
+    private ObjectName name;
+
+    /**
+     * Number of observers added to any view of the store
+     */
+    private final AtomicInteger observers = new AtomicInteger();
+
+    /**
+     * How long adding one appointment takes
+     */
+    private final LatencyHistogram add = new LatencyHistogram();
+
+    /**
+     * How long a removal takes
+     */
+    private final LatencyHistogram remove = new LatencyHistogram();
+
+    /**
+     * How long reading a day takes
+     */
+    private final LatencyHistogram appointmentsOn = new LatencyHistogram();
+
+    /**
+     * How long handing a delta to every observer takes
+     */
+    private final LatencyHistogram notify = new LatencyHistogram();
+
+    /**
+     * How long a save takes
+     */
+    private final LatencyHistogram save = new LatencyHistogram();
+
+    /**
+     * How long the last save took, in nanoseconds
+     */
+    private volatile long lastSave;
+
+    /**
+     * When the last save ended, in milliseconds since 1970
+     */
+    private volatile long lastSaveTime;
+
+
+    /**
+     * Create the metrics of a store, not timing anything yet
+     * @param store the store
+     */
+    CalendarMetrics(CalendarStore store){
+        this.store = store;
+    }
+
+    /**
+     * Start timing operations and register with the platform MBean server, under
+     * calendar.model:type=CalendarMetrics,name="the name", with an instance number added if another calendar
+     * has the same name. Registering again returns the name already given.
+     * @param label what the calendar is called, like the name of its file
+     * @return the name the metrics are registered under
+     * @throws IllegalStateException if the MBean server refuses them
+     */
+    synchronized ObjectName register(String label){
+        if (this.name != null) {
+            return this.name;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Hashtable<String, String> keys = new Hashtable<>();
+        keys.put("type", "CalendarMetrics");
+        keys.put("name", ObjectName.quote(label));
+        for (int instance = 2; ; instance++) {
+            try {
+                ObjectName candidate = new ObjectName(DOMAIN, keys);
+                server.registerMBean(this, candidate);
+                this.name = candidate;
+                this.enabled = true;
+                return candidate;
+            } catch (InstanceAlreadyExistsException e) {
+                keys.put("instance", Integer.toString(instance));
+            } catch (JMException e) {
+                throw new IllegalStateException("Cannot register the metrics of " + label, e);
+            }
+        }
+    }
+
+    /**
+     * Stop timing operations and take the metrics out of the platform MBean server
+     */
+    synchronized void unregister(){
+        if (this.name == null) {
+            return;
+        }
+        this.enabled = false;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+        } catch (InstanceNotFoundException e) {
+            //someone else took it out already
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister " + this.name, e);
+        } finally {
+            this.name = null;
+        }
+    }
+
+    /**
+     * Start timing an operation
+     * @return the time now, or {@link #NOT_TIMED} if operations are not being timed
+     */
+    long start(){
+        return this.enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Count an operation that started at a time, if it was timed
+     * @param histogram the kind of operation
+     * @param start what {@link #start()} returned
+     * @return how long it took in nanoseconds, or 0 if it was not timed
+     */
+    private static long record(LatencyHistogram histogram, long start){
+        if (start == NOT_TIMED) {
+            return 0;
+        }
+        long nanos = System.nanoTime() - start;
+        histogram.record(nanos);
+        return nanos;
+    }
+
+    /**
+     * Count an appointment added
+     * @param start what {@link #start()} returned before adding it
+     */
+    void added(long start){
+        record(this.add, start);
+    }
+
+    /**
+     * Count a removal
+     * @param start what {@link #start()} returned before removing
+     */
+    void removed(long start){
+        record(this.remove, start);
+    }
+
+    /**
+     * Count a day read
+     * @param start what {@link #start()} returned before reading it
+     */
+    void read(long start){
+        record(this.appointmentsOn, start);
+    }
+
+    /**
+     * Count a delta handed to the observers
+     * @param start what {@link #start()} returned before notifying them
+     */
+    void notified(long start){
+        record(this.notify, start);
+    }
+
+    /**
+     * Count a save
+     * @param start what {@link #start()} returned before saving
+     */
+    void saved(long start){
+        long nanos = record(this.save, start);
+        if (start != NOT_TIMED) {
+            this.lastSave = nanos;
+            this.lastSaveTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Count an observer added to a view of the store. Observers are counted whether or not operations are
+     * being timed.
+     */
+    void observerAdded(){
+        this.observers.incrementAndGet();
+    }
+
+    /**
+     * Return the number of appointments stored, not counting occurrences of repeating ones
+     * @return the appointment count
+     */
+    @Override
+    public int getAppointmentCount(){
+        return this.store.size();
+    }
+
+    /**
+     * Return the number of days that have appointments
+     * @return the day count
+     */
+    @Override
+    public int getDayCount(){
+        return this.store.days();
+    }
+
+    /**
+     * Return the number of repeating appointments
+     * @return the rule count
+     */
+    @Override
+    public int getRecurrenceCount(){
+        return this.store.ruleCount();
+    }
+
+    /**
+     * Return the number of observers added to the calendar and its other month views
+     * @return the observer count
+     */
+    @Override
+    public int getObserverCount(){
+        return this.observers.get();
+    }
+
+    /**
+     * Return how many appointments have been added one at a time
+     * @return the count
+     */
+    @Override
+    public long getAddCount(){
+        return this.add.count();
+    }
+
+    /**
+     * Return the median time of adding an appointment
+     * @return microseconds
+     */
+    @Override
+    public double getAddP50Micros(){
+        return this.add.percentileMicros(50);
+    }
+
+    /**
+     * Return the 99th percentile time of adding an appointment
+     * @return microseconds
+     */
+    @Override
+    public double getAddP99Micros(){
+        return this.add.percentileMicros(99);
+    }
+
+    /**
+     * Return the longest time of adding an appointment
+     * @return microseconds
+     */
+    @Override
+    public double getAddMaxMicros(){
+        return this.add.maxMicros();
+    }
+
+    /**
+     * Return how many removals have run
+     * @return the count
+     */
+    @Override
+    public long getRemoveCount(){
+        return this.remove.count();
+    }
+
+    /**
+     * Return the median time of a removal
+     * @return microseconds
+     */
+    @Override
+    public double getRemoveP50Micros(){
+        return this.remove.percentileMicros(50);
+    }
+
+    /**
+     * Return the 99th percentile time of a removal
+     * @return microseconds
+     */
+    @Override
+    public double getRemoveP99Micros(){
+        return this.remove.percentileMicros(99);
+    }
+
+    /**
+     * Return the longest time of a removal
+     * @return microseconds
+     */
+    @Override
+    public double getRemoveMaxMicros(){
+        return this.remove.maxMicros();
+    }
+
+    /**
+     * Return how many days have been read with appointmentsOn
+     * @return the count
+     */
+    @Override
+    public long getAppointmentsOnCount(){
+        return this.appointmentsOn.count();
+    }
+
+    /**
+     * Return the median time of reading a day
+     * @return microseconds
+     */
+    @Override
+    public double getAppointmentsOnP50Micros(){
+        return this.appointmentsOn.percentileMicros(50);
+    }
+
+    /**
+     * Return the 99th percentile time of reading a day
+     * @return microseconds
+     */
+    @Override
+    public double getAppointmentsOnP99Micros(){
+        return this.appointmentsOn.percentileMicros(99);
+    }
+
+    /**
+     * Return the longest time of reading a day
+     * @return microseconds
+     */
+    @Override
+    public double getAppointmentsOnMaxMicros(){
+        return this.appointmentsOn.maxMicros();
+    }
+
+    /**
+     * Return how many times observers have been notified
+     * @return the count
+     */
+    @Override
+    public long getNotifyCount(){
+        return this.notify.count();
+    }
+
+    /**
+     * Return the 99th percentile time of notifying every observer of a delta
+     * @return microseconds
+     */
+    @Override
+    public double getNotifyP99Micros(){
+        return this.notify.percentileMicros(99);
+    }
+
+    /**
+     * Return the longest time of notifying every observer of a delta
+     * @return microseconds
+     */
+    @Override
+    public double getNotifyMaxMicros(){
+        return this.notify.maxMicros();
+    }
+
+    /**
+     * Return how many times the calendar has been saved with toFile
+     * @return the count
+     */
+    @Override
+    public long getSaveCount(){
+        return this.save.count();
+    }
+
+    /**
+     * Return the mean time of a save
+     * @return microseconds
+     */
+    @Override
+    public double getSaveMeanMicros(){
+        return this.save.meanMicros();
+    }
+
+    /**
+     * Return how long the last save took
+     * @return milliseconds, 0 if it has not been saved
+     */
+    @Override
+    public double getLastSaveMillis(){
+        return this.lastSave / 1e6;
+    }
+
+    /**
+     * Return when the last save ended
+     * @return milliseconds since 1970-01-01 UTC, 0 if it has not been saved
+     */
+    @Override
+    public long getLastSaveTime(){
+        return this.lastSaveTime;
+    }
+
+    /**
+     * Forget the counts and times so far, but not the sizes
+     */
+    @Override
+    public void reset(){
+        this.add.reset();
+        this.remove.reset();
+        this.appointmentsOn.reset();
+        this.notify.reset();
+        this.save.reset();
+    }
+
+}
@@ -0,0 +1,154 @@
+package calendar.model;
+
+
+/**
+ * CalendarMetricsMBean is what a running calendar shows through JMX once {@link Calendar#registerMetrics()}
+ * has been called: how much it holds, how often its operations run and how long they take. Times are in
+ * microseconds; percentiles are the tops of power-of-two buckets, so they are within a factor of two.
+ */
+public interface CalendarMetricsMBean {
+
+    /**
+     * Return the number of appointments stored, not counting occurrences of repeating ones
+     * @return the appointment count
+     */
+    int getAppointmentCount();
+
+    /**
+     * Return the number of days that have appointments
+     * @return the day count
+     */
+    int getDayCount();
+
+    /**
+     * Return the number of repeating appointments
+     * @return the rule count
+     */
+    int getRecurrenceCount();
+
+    /**
+     * Return the number of observers added to the calendar and its other month views
+     * @return the observer count
+     */
+    int getObserverCount();
+
+    /**
+     * Return how many appointments have been added one at a time
+     * @return the count
+     */
+    long getAddCount();
+
+    /**
+     * Return the median time of adding an appointment
+     * @return microseconds
+     */
+    double getAddP50Micros();
+
+    /**
+     * Return the 99th percentile time of adding an appointment
+     * @return microseconds
+     */
+    double getAddP99Micros();
+
+    /**
+     * Return the longest time of adding an appointment
+     * @return microseconds
+     */
+    double getAddMaxMicros();
+
+    /**
+     * Return how many removals have run
+     * @return the count
+     */
+    long getRemoveCount();
+
+    /**
+     * Return the median time of a removal
+     * @return microseconds
+     */
+    double getRemoveP50Micros();
+
+    /**
+     * Return the 99th percentile time of a removal
+     * @return microseconds
+     */
+    double getRemoveP99Micros();
+
+    /**
+     * Return the longest time of a removal
+     * @return microseconds
+     */
+    double getRemoveMaxMicros();
+
+    /**
+     * Return how many days have been read with appointmentsOn
+     * @return the count
+     */
+    long getAppointmentsOnCount();
+
+    /**
+     * Return the median time of reading a day
+     * @return microseconds
+     */
+    double getAppointmentsOnP50Micros();
+
+    /**
+     * Return the 99th percentile time of reading a day
+     * @return microseconds
+     */
+    double getAppointmentsOnP99Micros();
+
+    /**
+     * Return the longest time of reading a day
+     * @return microseconds
+     */
+    double getAppointmentsOnMaxMicros();
+
+    /**
+     * Return how many times observers have been notified
+     * @return the count
+     */
+    long getNotifyCount();
+
+    /**
+     * Return the 99th percentile time of notifying every observer of a delta
+     * @return microseconds
+     */
+    double getNotifyP99Micros();
+
+    /**
+     * Return the longest time of notifying every observer of a delta
+     * @return microseconds
+     */
+    double getNotifyMaxMicros();
+
+    /**
+     * Return how many times the calendar has been saved with toFile
+     * @return the count
+     */
+    long getSaveCount();
+
+    /**
+     * Return the mean time of a save
+     * @return microseconds
+     */
+    double getSaveMeanMicros();
+
+    /**
+     * Return how long the last save took
+     * @return milliseconds, 0 if it has not been saved
+     */
+    double getLastSaveMillis();
+
+    /**
+     * Return when the last save ended
+     * @return milliseconds since 1970-01-01 UTC, 0 if it has not been saved
+     */
+    long getLastSaveTime();
+
+    /**
+     * Forget the counts and times so far, but not the sizes
+     */
+    void reset();
+
+}
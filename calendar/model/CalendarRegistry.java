@@ -0,0 +1,266 @@
+package calendar.model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * CalendarRegistry serves many calendars, one file per id in a directory, loading each on demand. Only a
+ * bounded working set is kept in memory: when there are more calendars than allowed, or more appointments
+ * among them, the least recently used calendars are evicted, and a calendar with unsaved changes is saved
+ * before it goes. A calendar handed out earlier stays usable after eviction, but the registry no longer saves
+ * it; ask the registry again to get the one it tracks.
+ *
+ * Every method is synchronized, so a registry can be shared between threads. Load calendars with
+ * concurrent set to true if the same calendar will also be changed from several threads.
+ */
+public class CalendarRegistry {
+
+    /**
+     * Where the calendar files are
+     */
+    private final Path directory;
+
+    /**
+     * Most calendars kept in memory at once
+     */
+    private final int maxCalendars;
+
+    /**
+     * Most appointments kept in memory at once, across all calendars
+     */
+    private final long maxAppointments;
+
+    /**
+     * Whether calendars are loaded for use by several threads
+     */
+    private final boolean concurrent;
+
+    /**
+     * The calendars in memory, least recently used first
+     */
+    private final LinkedHashMap<String, Calendar> calendars = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Requests answered from memory
+     */
+    private long hits;
+
+    /**
+     * Requests that had to load a file
+     */
+    private long misses;
+
+    /**
+     * Calendars dropped from memory to stay within the limits
+     */
+    private long evictions;
+
+
+    /**
+     * Create a registry over a directory of calendar files. Calendars are loaded for use by one thread at a
+     * time.
+     * @param directory where the calendar files are
+     * @param maxCalendars most calendars kept in memory at once, at least 1
+     * @param maxAppointments most appointments kept in memory at once, across all calendars
+     */
+    public CalendarRegistry(Path directory, int maxCalendars, long maxAppointments){
+        this(directory, maxCalendars, maxAppointments, false);
+    }
+
+    /**
+     * Create a registry over a directory of calendar files.
+     * @param directory where the calendar files are
+     * @param maxCalendars most calendars kept in memory at once, at least 1
+     * @param maxAppointments most appointments kept in memory at once, across all calendars
+     * @param concurrent true to load calendars that several threads can use at once
+     */
+    public CalendarRegistry(Path directory, int maxCalendars, long maxAppointments, boolean concurrent){
+        if (maxCalendars < 1) {
+            throw new IllegalArgumentException("A registry must hold at least one calendar");
+        }
+        this.directory = directory.toAbsolutePath().normalize();
+        this.maxCalendars = maxCalendars;
+        this.maxAppointments = maxAppointments;
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Get a calendar, loading it from its file if it is not in memory. Other calendars may be evicted, and
+     * saved, to make room.
+     * @param id the name of the calendar's file in the directory
+     * @return the calendar
+     * @throws IOException if the file cannot be read, or an evicted calendar cannot be saved
+     */
+    public synchronized Calendar get(String id) throws IOException {
+        Calendar calendar = this.calendars.get(id);
+        if (calendar != null) {
+            this.hits++;
+        } else {
+            Path path = pathOf(id);
+            this.misses++;
+            calendar = Calendar.fromFile(path.toString(), this.concurrent);
+            this.calendars.put(id, calendar);
+        }
+        evict(id);
+        return calendar;
+    }
+
+    /**
+     * Tell whether a calendar is in memory, without counting it as used
+     * @param id the name of the calendar's file
+     * @return true if it is loaded
+     */
+    public synchronized boolean isLoaded(String id){
+        return this.calendars.containsKey(id);
+    }
+
+    /**
+     * Find the file of a calendar, refusing ids that would reach outside the directory
+     * @param id the name of the calendar's file
+     * @return the path of the file
+     */
+    private Path pathOf(String id){
+        Path path = this.directory.resolve(id).normalize();
+        if (!this.directory.equals(path.getParent())) {
+            throw new IllegalArgumentException("Not a calendar id: " + id);
+        }
+        return path;
+    }
+
+    /**
+     * Evict the least recently used calendars until the working set is within its limits. The calendar just
+     * asked for is always kept, even if it alone is over the appointment limit.
+     * @param keep id of the calendar just asked for
+     * @throws IOException if a calendar cannot be saved; it is then left in memory
+     */
+    private void evict(String keep) throws IOException {
+        long appointments = 0;
+        for (Calendar calendar : this.calendars.values()) {
+            appointments += calendar.size();
+        }
+        Iterator<Map.Entry<String, Calendar>> eldest = this.calendars.entrySet().iterator();
+        while ((this.calendars.size() > this.maxCalendars || appointments > this.maxAppointments)
+                && eldest.hasNext()) {
+            Map.Entry<String, Calendar> entry = eldest.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            Calendar calendar = entry.getValue();
+            release(calendar);
+            eldest.remove();
+            appointments -= calendar.size();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Save a calendar if it has unsaved changes, and stop its journal
+     * @param calendar the calendar leaving memory
+     * @throws IOException if it cannot be saved
+     */
+    private static void release(Calendar calendar) throws IOException {
+        if (calendar.isDirty()) {
+            calendar.toFile();
+        }
+        calendar.closeJournal();
+    }
+
+    /**
+     * Save every calendar in memory that has unsaved changes.
+     * @throws IOException if a calendar cannot be saved; the others are still tried
+     */
+    public synchronized void flush() throws IOException {
+        List<IOException> failures = new ArrayList<>();
+        for (Calendar calendar : this.calendars.values()) {
+            try {
+                if (calendar.isDirty()) {
+                    calendar.toFile();
+                }
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        }
+        throwFirst(failures);
+    }
+
+    /**
+     * Save and drop every calendar in memory.
+     * @throws IOException if a calendar cannot be saved; it is then left in memory and the others still go
+     */
+    public synchronized void close() throws IOException {
+        List<IOException> failures = new ArrayList<>();
+        for (Iterator<Calendar> it = this.calendars.values().iterator(); it.hasNext(); ) {
+            try {
+                release(it.next());
+                it.remove();
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        }
+        throwFirst(failures);
+    }
+
+    /**
+     * Throw the first of a list of failures with the rest attached as suppressed
+     * @param failures what went wrong
+     * @throws IOException the first failure, if there is one
+     */
+    private static void throwFirst(List<IOException> failures) throws IOException {
+        if (!failures.isEmpty()) {
+            IOException first = failures.get(0);
+            for (int i = 1; i < failures.size(); i++) {
+                first.addSuppressed(failures.get(i));
+            }
+            throw first;
+        }
+    }
+
+    /**
+     * Return how many calendars are in memory
+     * @return the number of loaded calendars
+     */
+    public synchronized int size(){
+        return this.calendars.size();
+    }
+
+    /**
+     * Return how many requests were answered from memory
+     * @return the hit count
+     */
+    public synchronized long hits(){
+        return this.hits;
+    }
+
+    /**
+     * Return how many requests had to load a file
+     * @return the miss count
+     */
+    public synchronized long misses(){
+        return this.misses;
+    }
+
+    /**
+     * Return how many calendars were dropped from memory to stay within the limits
+     * @return the eviction count
+     */
+    public synchronized long evictions(){
+        return this.evictions;
+    }
+
+    /**
+     * Describe the registry and its counters
+     * @return a one-line summary
+     */
+    @Override
+    public synchronized String toString(){
+        return "CalendarRegistry " + this.directory + ": " + this.calendars.size() + " loaded, " + this.hits +
+                " hits, " + this.misses + " misses, " + this.evictions + " evictions";
+    }
+
+}
@@ -0,0 +1,1415 @@
+package calendar.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * CalendarStore is the engine behind every Calendar. It holds appointments for any number of months or
+ * years, keyed by epoch day (days since 1970-01-01, see {@link java.time.LocalDate#toEpochDay()}).
+ * Days are grouped into blocks of 32 consecutive epoch days held in a sorted map, so seeking to any date
+ * is one map lookup plus an array index, and walking forward only visits blocks that have appointments.
+ * A Calendar is a month-sized view over a store.
+ *
+ * A concurrent store can be shared between threads. Reads take no locks: every day is published as a
+ * DaySlot that is never changed again, and a write copies the day, changes the copy and publishes it.
+ * Writes lock one of a set of stripes chosen by the day, so only writes to the same day (or to days that
+ * share a stripe) wait for each other. A store that is not concurrent changes its days in place.
+ *
+ * Repeating appointments are kept apart as {@link Recurrence} rules, once each. Queries work out the
+ * occurrences that fall in the days they cover and merge them with the appointments of those days, after the
+ * ones at the same time.
+ */
+class CalendarStore {
+
+    /**
+     * log2 of the number of days in a block
+     */
+    static final int BLOCK_SHIFT = 5;
+
+    /**
+     * Mask giving the position of an epoch day inside its block
+     */
+    static final int BLOCK_MASK = (1 << BLOCK_SHIFT) - 1;
+
+    /**
+     * Returned by {@link #nextDay(int)} when there are no more days with appointments
+     */
+    static final int NO_DAY = Integer.MAX_VALUE;
+
+    /**
+     * Number of write locks in a concurrent store, a power of two
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * Access to the slots of a block with acquire/release ordering
+     */
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(DaySlot[].class);
+
+    /**
+     * Access to the occupied mask of a block with atomic bit operations
+     */
+    private static final VarHandle OCCUPIED;
+
+    /**
+     * Access to the unloaded mask of a block with atomic bit operations
+     */
+    private static final VarHandle UNLOADED;
+
+    static {
+        try {
+            OCCUPIED = MethodHandles.lookup().findVarHandle(DayBlock.class, "occupied", int.class);
+            UNLOADED = MethodHandles.lookup().findVarHandle(DayBlock.class, "unloaded", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Whether this store may be used by several threads at once
+     */
+    private final boolean concurrent;
+
+    /**
+     * The blocks that have (or, in a concurrent store, have had) appointments, keyed by epoch day shifted
+     * right by BLOCK_SHIFT
+     */
+    private final NavigableMap<Integer, DayBlock> blocks;
+
+    /**
+     * The write locks of a concurrent store, null otherwise
+     */
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Number of appointments in the whole store
+     */
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * Number of days that have appointments
+     */
+    private final LongAdder days = new LongAdder();
+
+    /**
+     * Number of appointments ever added or removed, for telling whether the store needs saving
+     */
+    private final LongAdder changes = new LongAdder();
+
+    /**
+     * The value of changes when the store was last read or saved
+     */
+    private volatile long savedChanges;
+
+    /**
+     * Where each appointment is, by id
+     */
+    private final IdIndex ids = new IdIndex();
+
+    /**
+     * The words of every description, built on the first search and kept up to date after that; null
+     * until then
+     */
+    private volatile TextIndex text;
+
+    /**
+     * The last id given to an appointment or a rule
+     */
+    private final AtomicLong lastId = new AtomicLong();
+
+    /**
+     * The repeating appointments, by id. Changes to it are made while holding {@link #rulesLock}, so the
+     * journal gets them in the same order.
+     */
+    private final NavigableMap<Long, Recurrence> rules = new ConcurrentSkipListMap<>();
+
+    /**
+     * Held while the rules change, and by {@link #lockAll()} so a checkpoint cannot miss a rule change
+     */
+    private final ReentrantLock rulesLock = new ReentrantLock();
+
+    /**
+     * Where changes are logged when the calendar is journaled, null otherwise
+     */
+    private volatile CalendarJournal journal;
+
+    /**
+     * The mapped binary file whose days have not all been decoded yet, or null
+     */
+    private BinaryCalendarFile source;
+
+    /**
+     * The counts and times of the operations on this store, shared by every view of it
+     */
+    private final CalendarMetrics metrics = new CalendarMetrics(this);
+
+
+    /**
+     * One occurrence of a rule, with its day
+     */
+    private static final class Occurrence {
+        final int epochDay;
+        final Appointment appointment;
+
+        Occurrence(int epochDay, Appointment appointment){
+            this.epochDay = epochDay;
+            this.appointment = appointment;
+        }
+
+        int minute(){
+            return this.appointment.getTime().getMinutes();
+        }
+    }
+
+    /**
+     * 32 consecutive days, a bit mask of which of them have appointments, and a bit mask of which of those
+     * are still waiting to be decoded from a mapped file.
+     */
+    private static class DayBlock {
+        final DaySlot[] slots = new DaySlot[BLOCK_MASK + 1];
+        volatile int occupied;
+        volatile int unloaded;
+
+        DaySlot get(int index){
+            return (DaySlot) SLOTS.getAcquire(this.slots, index);
+        }
+
+        int set(int index, DaySlot day){
+            SLOTS.setRelease(this.slots, index, day);
+            int bit = 1 << index;
+            if (day == null) {
+                return ((int) OCCUPIED.getAndBitwiseAnd(this, ~bit) & bit) != 0 ? -1 : 0;
+            }
+            return ((int) OCCUPIED.getAndBitwiseOr(this, bit) & bit) == 0 ? 1 : 0;
+        }
+    }
+
+    /**
+     * Create an empty store
+     * @param concurrent true if several threads will use the store at once
+     */
+    CalendarStore(boolean concurrent){
+        this.concurrent = concurrent;
+        if (concurrent) {
+            this.blocks = new ConcurrentSkipListMap<>();
+            this.stripes = new ReentrantLock[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                this.stripes[i] = new ReentrantLock();
+            }
+        } else {
+            this.blocks = new TreeMap<>();
+            this.stripes = null;
+        }
+    }
+
+    /**
+     * Tell whether this store can be shared between threads
+     * @return true for a concurrent store
+     */
+    boolean isConcurrent(){
+        return this.concurrent;
+    }
+
+    /**
+     * Return the journal changes are logged to
+     * @return the journal, or null if the store is not journaled
+     */
+    CalendarJournal journal(){
+        return this.journal;
+    }
+
+    /**
+     * Start or stop logging changes to a journal
+     * @param journal the journal, or null to stop
+     */
+    void setJournal(CalendarJournal journal){
+        this.journal = journal;
+    }
+
+    /**
+     * Take the days of a mapped binary file as this store's appointments. Only the day table is read now;
+     * each day is decoded the first time it is used.
+     * @param file the mapped file
+     */
+    void attach(BinaryCalendarFile file){
+        this.source = file;
+        for (Recurrence rule : file.rules()) {
+            addRule(rule);
+        }
+        int firstDay = file.firstDay();
+        for (int i = 0; i < file.dayCount(); i++) {
+            int count = file.count(i);
+            if (count > 0) {
+                int epochDay = firstDay + i;
+                DayBlock block = this.blocks.computeIfAbsent(epochDay >> BLOCK_SHIFT, b -> new DayBlock());
+                int bit = 1 << (epochDay & BLOCK_MASK);
+                UNLOADED.getAndBitwiseOr(block, bit);
+                OCCUPIED.getAndBitwiseOr(block, bit);
+                this.size.add(count);
+                this.days.increment();
+            }
+        }
+    }
+
+    /**
+     * Return the current slot of a day in a block, decoding it from the mapped file first if need be.
+     * @param block the block of the day
+     * @param epochDay the day
+     * @return the day's slot, or null if it has no appointments
+     */
+    private DaySlot current(DayBlock block, int epochDay){
+        int index = epochDay & BLOCK_MASK;
+        if ((block.unloaded & (1 << index)) == 0) {
+            return block.get(index);
+        }
+        lock(epochDay);
+        try {
+            if ((block.unloaded & (1 << index)) != 0) {
+                //publish the slot before clearing the bit, so a reader that sees the bit clear sees the slot
+                DaySlot day = this.source.readDay(epochDay);
+                long id = this.lastId.getAndAdd(day.size());
+                TextIndex text = this.text;
+                for (int i = 0; i < day.size(); i++) {
+                    day.setId(i, ++id);
+                    this.ids.put(id, IdIndex.location(epochDay, day.minuteAt(i)));
+                    if (text != null) {
+                        text.add(id, day.textAt(i));
+                    }
+                }
+                SLOTS.setRelease(block.slots, index, day);
+                UNLOADED.getAndBitwiseAnd(block, ~(1 << index));
+            }
+            return block.get(index);
+        } finally {
+            unlock(epochDay);
+        }
+    }
+
+    /**
+     * Take every write lock, the one of the rules included, so that nothing changes until
+     * {@link #unlockAll()}. Used while a checkpoint is written.
+     */
+    void lockAll(){
+        if (this.stripes != null) {
+            for (ReentrantLock stripe : this.stripes) {
+                stripe.lock();
+            }
+        }
+        this.rulesLock.lock();
+    }
+
+    /**
+     * Release the locks taken by {@link #lockAll()}
+     */
+    void unlockAll(){
+        this.rulesLock.unlock();
+        if (this.stripes != null) {
+            for (ReentrantLock stripe : this.stripes) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Take the write locks of two days, in a fixed order so that two threads taking the same pair cannot
+     * deadlock
+     * @param epochDay one day about to be changed
+     * @param otherDay the other day, which may be the same
+     */
+    private void lock(int epochDay, int otherDay){
+        if (this.stripes != null) {
+            int first = epochDay & (STRIPES - 1);
+            int second = otherDay & (STRIPES - 1);
+            this.stripes[Math.min(first, second)].lock();
+            if (first != second) {
+                this.stripes[Math.max(first, second)].lock();
+            }
+        }
+    }
+
+    /**
+     * Release the write locks taken by {@link #lock(int, int)}
+     * @param epochDay one day that was changed
+     * @param otherDay the other day
+     */
+    private void unlock(int epochDay, int otherDay){
+        if (this.stripes != null) {
+            int first = epochDay & (STRIPES - 1);
+            int second = otherDay & (STRIPES - 1);
+            if (first != second) {
+                this.stripes[second].unlock();
+            }
+            this.stripes[first].unlock();
+        }
+    }
+
+    /**
+     * Take the write lock of a day, if this store has locks
+     * @param epochDay the day about to be changed
+     */
+    private void lock(int epochDay){
+        if (this.stripes != null) {
+            this.stripes[epochDay & (STRIPES - 1)].lock();
+        }
+    }
+
+    /**
+     * Release the write lock taken by {@link #lock(int)}
+     * @param epochDay the day that was changed
+     */
+    private void unlock(int epochDay){
+        if (this.stripes != null) {
+            this.stripes[epochDay & (STRIPES - 1)].unlock();
+        }
+    }
+
+    /**
+     * Return the appointments of a day. In a concurrent store the slot returned never changes.
+     * @param epochDay the day
+     * @return the day's slot, or null if the day has no appointments
+     */
+    DaySlot slot(int epochDay){
+        DayBlock block = this.blocks.get(epochDay >> BLOCK_SHIFT);
+        return block == null ? null : current(block, epochDay);
+    }
+
+    /**
+     * Return the appointments of a day, with the occurrences of rules merged in. Without any rules falling on
+     * the day, this is a view of the day's slot and nothing is copied.
+     * @param epochDay the day
+     * @return a read-only list of the appointments in order of time, with days of their month as dates
+     */
+    List<Appointment> appointments(int epochDay){
+        DaySlot day = slot(epochDay);
+        int date = LocalDate.ofEpochDay(epochDay).getDayOfMonth();
+        List<Appointment> view = day == null ? Collections.emptyList() : day.view(date);
+        if (this.rules.isEmpty()) {
+            return view;
+        }
+        List<Occurrence> extra = occurrences(epochDay, epochDay, null);
+        if (extra.isEmpty()) {
+            return view;
+        }
+        List<Appointment> merged = new ArrayList<>(view.size() + extra.size());
+        int next = 0;
+        for (int i = 0; i < view.size(); i++) {
+            int minute = day.minuteAt(i);
+            while (next < extra.size() && extra.get(next).minute() < minute) {
+                merged.add(extra.get(next++).appointment);
+            }
+            merged.add(view.get(i));
+        }
+        while (next < extra.size()) {
+            merged.add(extra.get(next++).appointment);
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    /**
+     * Work out the occurrences of every rule over a run of days. Each rule finds its first date in the run with
+     * arithmetic, so only occurrences inside the run are ever made.
+     * @param fromDay the first epoch day
+     * @param toDay the last epoch day, included
+     * @param words only rules whose descriptions have all of these words, or null for every rule
+     * @return the occurrences in order of day, time and rule id
+     */
+    private List<Occurrence> occurrences(int fromDay, int toDay, List<String> words){
+        List<Occurrence> found = new ArrayList<>();
+        for (Recurrence rule : this.rules.values()) {
+            if (words != null && !TextIndex.words(rule.getText()).containsAll(words)) {
+                continue;
+            }
+            for (int day = rule.next(fromDay); day != NO_DAY && day <= toDay; day = rule.next(day + 1)) {
+                found.add(new Occurrence(day, rule.occurrence(day)));
+            }
+        }
+        //stable, so rules at the same day and time stay in order of id
+        found.sort((x, y) -> x.epochDay != y.epochDay ? Integer.compare(x.epochDay, y.epochDay) :
+                Integer.compare(x.minute(), y.minute()));
+        return found;
+    }
+
+    /**
+     * Add a repeating appointment
+     * @param rule the rule
+     * @return the id given to the rule, which all its occurrences have
+     */
+    long addRule(Recurrence rule){
+        long id = this.lastId.incrementAndGet();
+        this.rulesLock.lock();
+        try {
+            logRule(null, rule);
+            this.rules.put(id, rule.withId(id));
+        } finally {
+            this.rulesLock.unlock();
+        }
+        this.changes.increment();
+        return id;
+    }
+
+    /**
+     * Return a repeating appointment
+     * @param id its id
+     * @return the rule, or null if there is none with that id
+     */
+    Recurrence rule(long id){
+        return this.rules.get(id);
+    }
+
+    /**
+     * Return every repeating appointment
+     * @return the rules in order of id
+     */
+    List<Recurrence> rules(){
+        return new ArrayList<>(this.rules.values());
+    }
+
+    /**
+     * Remove a repeating appointment with all its occurrences
+     * @param id its id
+     * @return the rule removed, or null if there was none with that id
+     */
+    Recurrence removeRule(long id){
+        this.rulesLock.lock();
+        try {
+            Recurrence rule = this.rules.get(id);
+            if (rule != null) {
+                logRule(rule, null);
+                this.rules.remove(id);
+                this.changes.increment();
+            }
+            return rule;
+        } finally {
+            this.rulesLock.unlock();
+        }
+    }
+
+    /**
+     * Replace a repeating appointment with a changed version, keeping its id
+     * @param id its id
+     * @param changed the new version
+     * @return the old version, or null if there was no rule with that id
+     */
+    Recurrence replaceRule(long id, Recurrence changed){
+        this.rulesLock.lock();
+        try {
+            Recurrence rule = this.rules.get(id);
+            if (rule != null) {
+                logRule(rule, changed);
+                this.rules.put(id, changed.withId(id));
+                this.changes.increment();
+            }
+            return rule;
+        } finally {
+            this.rulesLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the first repeating appointment equal to a rule. Used to replay the journal, which records rules
+     * by what they are rather than by id.
+     * @param like the rule to look for
+     * @return true if there was such a rule
+     */
+    boolean removeRule(Recurrence like){
+        for (Recurrence rule : this.rules.values()) {
+            if (rule.equals(like)) {
+                return removeRule(rule.getId()) != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Log a change to the rules, if the store is journaled
+     * @param removed the rule taken away, or null
+     * @param added the rule put in, or null
+     */
+    private void logRule(Recurrence removed, Recurrence added){
+        CalendarJournal journal = this.journal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            if (removed != null) {
+                journal.ruleRemoved(removed.csvFormat());
+            }
+            if (added != null) {
+                journal.ruleAdded(added.csvFormat());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Add an appointment, keeping its day sorted by time.
+     * @param epochDay the day of the appointment
+     * @param minute the minute of the day
+     * @param what the description
+     * @param duration the length of the appointment in minutes, or 0
+     * @return the id given to the appointment
+     */
+    long add(int epochDay, int minute, String what, int duration){
+        return add(epochDay, minute, what, duration, null);
+    }
+
+    /**
+     * Add an appointment only if it overlaps nothing already on its day. The check and the add happen under
+     * the day's lock, so two threads cannot both book the same free time.
+     * @param epochDay the day of the appointment
+     * @param minute the minute of the day
+     * @param what the description
+     * @param duration the length of the appointment in minutes, or 0
+     * @param conflicts where the appointments it overlaps are added, with days of their month as dates
+     * @return the id given to the appointment, or 0 if it overlaps something and was not added
+     */
+    long addIfFree(int epochDay, int minute, String what, int duration, List<Appointment> conflicts){
+        return add(epochDay, minute, what, duration, conflicts);
+    }
+
+    /**
+     * Add an appointment, keeping its day sorted by time, unless it is checked for overlaps and has some
+     * @param epochDay the day of the appointment
+     * @param minute the minute of the day
+     * @param what the description
+     * @param duration the length of the appointment in minutes, or 0
+     * @param conflicts where the appointments it overlaps are added, or null to add it without checking
+     * @return the id given to the appointment, or 0 if it was not added
+     */
+    private long add(int epochDay, int minute, String what, int duration, List<Appointment> conflicts){
+        long id;
+        lock(epochDay);
+        try {
+            DayBlock block = this.blocks.computeIfAbsent(epochDay >> BLOCK_SHIFT, b -> new DayBlock());
+            int index = epochDay & BLOCK_MASK;
+            DaySlot day = current(block, epochDay);
+            if (conflicts != null) {
+                int before = conflicts.size();
+                overlapping(day, epochDay, minute, minute + Math.max(duration, 1), conflicts);
+                if (conflicts.size() > before) {
+                    return 0;
+                }
+            }
+            CalendarJournal journal = this.journal;
+            if (journal != null) {
+                journal.added(epochDay, minute, what, duration);
+            }
+            if (day == null) {
+                day = new DaySlot();
+            } else if (this.concurrent) {
+                day = day.copy();
+            }
+            id = this.lastId.incrementAndGet();
+            day.insert(minute, what, duration, id);
+            this.days.add(block.set(index, day));
+            this.ids.put(id, IdIndex.location(epochDay, minute));
+            TextIndex text = this.text;
+            if (text != null) {
+                text.add(id, what);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            unlock(epochDay);
+        }
+        this.size.increment();
+        this.changes.increment();
+        return id;
+    }
+
+    /**
+     * Work out the order of appointments by day and then time, keeping their given order among equals. The
+     * day, minute and position are packed into one long so that a primitive sort does it, unless the days
+     * span too many years to fit.
+     * @param days epoch day of each appointment
+     * @param minutes minute of the day of each appointment, 0 to 1439
+     * @param count how many entries of the arrays to sort
+     * @return the positions in the arrays, in order
+     */
+    static int[] sortByDay(int[] days, short[] minutes, int count){
+        int[] order = new int[count];
+        int minDay = Integer.MAX_VALUE;
+        int maxDay = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minDay = Math.min(minDay, days[i]);
+            maxDay = Math.max(maxDay, days[i]);
+        }
+        if (count == 0 || (long) maxDay - minDay < 1 << 20) {
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = (long) (days[i] - minDay) << 43 | (long) minutes[i] << 32 | i;
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < count; i++) {
+                order[i] = (int) keys[i];
+            }
+        } else {
+            Integer[] boxed = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, (x, y) -> days[x] != days[y] ?
+                    Integer.compare(days[x], days[y]) : Integer.compare(minutes[x], minutes[y]));
+            for (int i = 0; i < count; i++) {
+                order[i] = boxed[i];
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Add many appointments at once. The appointments are visited in the given order, which must be sorted by
+     * day and then by time; each day takes its lock and is copied only once, and its new appointments are
+     * merged into it in one pass.
+     * @param days epoch day of each appointment
+     * @param minutes minute of the day of each appointment
+     * @param texts description of each appointment
+     * @param durations length of each appointment in minutes, or null if none of them has one
+     * @param order positions in the arrays, sorted by day and then by minute
+     * @param count how many entries of order to add
+     * @return the id given to each appointment, at the same position as in the arrays
+     */
+    long[] addAll(int[] days, short[] minutes, String[] texts, short[] durations, int[] order, int count){
+        long[] added = new long[days.length];
+        long id = this.lastId.getAndAdd(count);
+        for (int i = 0; i < count; i++) {
+            added[order[i]] = ++id;
+        }
+        int start = 0;
+        while (start < count) {
+            int epochDay = days[order[start]];
+            int end = start + 1;
+            while (end < count && days[order[end]] == epochDay) {
+                end++;
+            }
+            lock(epochDay);
+            try {
+                CalendarJournal journal = this.journal;
+                if (journal != null) {
+                    for (int i = start; i < end; i++) {
+                        journal.added(epochDay, minutes[order[i]], texts[order[i]],
+                                durations == null ? 0 : durations[order[i]]);
+                    }
+                }
+                DayBlock block = this.blocks.computeIfAbsent(epochDay >> BLOCK_SHIFT, b -> new DayBlock());
+                DaySlot day = current(block, epochDay);
+                if (day == null) {
+                    day = new DaySlot();
+                } else if (this.concurrent) {
+                    day = day.copy();
+                }
+                day.insertSorted(minutes, texts, durations, added, order, start, end);
+                this.days.add(block.set(epochDay & BLOCK_MASK, day));
+                TextIndex text = this.text;
+                for (int i = start; i < end; i++) {
+                    this.ids.put(added[order[i]], IdIndex.location(epochDay, minutes[order[i]]));
+                    if (text != null) {
+                        text.add(added[order[i]], texts[order[i]]);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                unlock(epochDay);
+            }
+            this.size.add(end - start);
+            this.changes.add(end - start);
+            start = end;
+        }
+        return added;
+    }
+
+    /**
+     * Remove every appointment at the given minute of a day
+     * @param epochDay the day
+     * @param minute the minute of the day
+     * @return how many appointments were removed
+     */
+    int removeAll(int epochDay, int minute){
+        return removeAll(epochDay, minute, null);
+    }
+
+    /**
+     * Remove every appointment at the given minute of a day
+     * @param epochDay the day
+     * @param minute the minute of the day
+     * @param out where the removed appointments are added, with days of their month as dates, or null
+     * @return how many appointments were removed
+     */
+    int removeAll(int epochDay, int minute, List<Appointment> out){
+        int removed;
+        lock(epochDay);
+        try {
+            int key = epochDay >> BLOCK_SHIFT;
+            DayBlock block = this.blocks.get(key);
+            int index = epochDay & BLOCK_MASK;
+            DaySlot day = block == null ? null : current(block, epochDay);
+            if (day == null) {
+                return 0;
+            }
+            int from = day.search(minute, false);
+            int to = day.search(minute, true);
+            removed = to - from;
+            if (removed == 0) {
+                return 0;
+            }
+            CalendarJournal journal = this.journal;
+            if (journal != null) {
+                journal.removed(epochDay, minute);
+            }
+            copyOut(day, from, to, epochDay, out);
+            forget(day, from, to);
+            if (this.concurrent) {
+                day = day.copy();
+            }
+            day.remove(from, to);
+            this.days.add(block.set(index, day.size() == 0 ? null : day));
+            //a concurrent store keeps empty blocks, since another day of the block may be getting one
+            if (block.occupied == 0 && !this.concurrent) {
+                this.blocks.remove(key);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            unlock(epochDay);
+        }
+        this.size.add(-removed);
+        this.changes.add(removed);
+        return removed;
+    }
+
+    /**
+     * Remove every appointment at each of many minutes at once. The minutes are visited in the given order,
+     * which must be sorted by day and then by minute; each day takes its lock and is copied only once.
+     * @param days epoch day of each minute to clear
+     * @param minutes each minute of the day to clear
+     * @param order positions in the arrays, sorted by day and then by minute
+     * @param count how many entries of order to visit
+     * @param out where the removed appointments are added, with days of their month as dates, or null
+     * @return how many appointments were removed
+     */
+    int removeAll(int[] days, short[] minutes, int[] order, int count, List<Appointment> out){
+        int total = 0;
+        int start = 0;
+        while (start < count) {
+            int epochDay = days[order[start]];
+            int end = start + 1;
+            while (end < count && days[order[end]] == epochDay) {
+                end++;
+            }
+            int removed = 0;
+            lock(epochDay);
+            try {
+                int key = epochDay >> BLOCK_SHIFT;
+                DayBlock block = this.blocks.get(key);
+                DaySlot day = block == null ? null : current(block, epochDay);
+                if (day != null) {
+                    if (this.concurrent) {
+                        day = day.copy();
+                    }
+                    CalendarJournal journal = this.journal;
+                    for (int i = start; i < end; i++) {
+                        int minute = minutes[order[i]];
+                        int from = day.search(minute, false);
+                        int to = day.search(minute, true);
+                        if (to > from) {
+                            if (journal != null) {
+                                journal.removed(epochDay, minute);
+                            }
+                            copyOut(day, from, to, epochDay, out);
+                            forget(day, from, to);
+                            day.remove(from, to);
+                            removed += to - from;
+                        }
+                    }
+                    if (removed > 0) {
+                        this.days.add(block.set(epochDay & BLOCK_MASK, day.size() == 0 ? null : day));
+                        if (block.occupied == 0 && !this.concurrent) {
+                            this.blocks.remove(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                unlock(epochDay);
+            }
+            this.size.add(-removed);
+            this.changes.add(removed);
+            total += removed;
+            start = end;
+        }
+        return total;
+    }
+
+    /**
+     * Drop some appointments of a day that are about to be removed from the indexes
+     * @param day the day
+     * @param from first position
+     * @param to position after the last
+     */
+    private void forget(DaySlot day, int from, int to){
+        TextIndex text = this.text;
+        for (int i = from; i < to; i++) {
+            this.ids.remove(day.idAt(i));
+            if (text != null) {
+                text.remove(day.idAt(i), day.textAt(i));
+            }
+        }
+    }
+
+    /**
+     * Find the appointments whose descriptions have every word of a query. The first search indexes every
+     * description in the store, decoding any days still in a mapped file; later searches only look up the
+     * words.
+     * @param query the words to look for, in any case
+     * @param fromDay first epoch day to look on
+     * @param toDay last epoch day to look on
+     * @return flyweights of the appointments, and occurrences of rules, with days of their month as dates, in
+     *         order of day and time
+     */
+    List<Appointment> search(String query, int fromDay, int toDay){
+        List<String> words = TextIndex.words(query);
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+        TextIndex text = this.text;
+        if (text == null) {
+            text = buildText();
+        }
+        //the ids come sorted, and sortByDay keeps that order among appointments at the same time
+        long[] found = text.search(query);
+        int[] days = new int[found.length];
+        short[] minutes = new short[found.length];
+        int count = 0;
+        for (int i = 0; i < found.length; i++) {
+            long location = this.ids.get(found[i]);
+            if (location != IdIndex.ABSENT && IdIndex.dayOf(location) >= fromDay && IdIndex.dayOf(location) <= toDay) {
+                days[count] = IdIndex.dayOf(location);
+                minutes[count] = (short) IdIndex.minuteOf(location);
+                found[count++] = found[i];
+            }
+        }
+        int[] order = sortByDay(days, minutes, count);
+        List<Occurrence> extra = this.rules.isEmpty() ? Collections.emptyList() :
+                occurrences(fromDay, toDay, words);
+        List<Appointment> out = new ArrayList<>(count + extra.size());
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            long location = IdIndex.location(days[order[i]], minutes[order[i]]);
+            while (next < extra.size() && IdIndex.location(extra.get(next).epochDay, extra.get(next).minute()) <
+                    location) {
+                out.add(extra.get(next++).appointment);
+            }
+            Appointment appointment = find(found[order[i]]);
+            if (appointment != null) {
+                out.add(appointment);
+            }
+        }
+        while (next < extra.size()) {
+            out.add(extra.get(next++).appointment);
+        }
+        return out;
+    }
+
+    /**
+     * Index the description of every appointment in the store, unless another thread got there first. Every
+     * lock is held meanwhile, so no change slips in between the build and the index being used.
+     * @return the index
+     */
+    private TextIndex buildText(){
+        lockAll();
+        try {
+            if (this.text == null) {
+                TextIndex text = new TextIndex();
+                for (int epochDay = nextDay(Integer.MIN_VALUE); epochDay != NO_DAY; epochDay = nextDay(epochDay + 1)) {
+                    DaySlot day = slot(epochDay);
+                    for (int i = 0; day != null && i < day.size(); i++) {
+                        text.add(day.idAt(i), day.textAt(i));
+                    }
+                }
+                this.text = text;
+            }
+            return this.text;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Find an appointment by its id
+     * @param id the id
+     * @return a flyweight of the appointment, with the day of its month as date, or null if there is none
+     */
+    Appointment find(long id){
+        long location = this.ids.get(id);
+        if (location == IdIndex.ABSENT) {
+            return null;
+        }
+        int epochDay = IdIndex.dayOf(location);
+        DaySlot day = slot(epochDay);
+        int index = day == null ? -1 : day.indexOf(id, IdIndex.minuteOf(location));
+        //a concurrent store may have moved it since the index was read
+        return index < 0 ? null : day.appointmentAt(index, LocalDate.ofEpochDay(epochDay).getDayOfMonth());
+    }
+
+    /**
+     * Return the day of an appointment
+     * @param id the id of the appointment
+     * @return its epoch day, or {@link #NO_DAY} if there is no such appointment
+     */
+    int dayOf(long id){
+        long location = this.ids.get(id);
+        return location == IdIndex.ABSENT ? NO_DAY : IdIndex.dayOf(location);
+    }
+
+    /**
+     * Remove one appointment by its id
+     * @param id the id
+     * @return the removal, or null if there was no such appointment
+     */
+    CalendarChange remove(long id){
+        return change(id, NO_DAY, 0, null, true);
+    }
+
+    /**
+     * Change the description of one appointment by its id, keeping its id, day and time
+     * @param id the id
+     * @param what the new description
+     * @return the change, or null if there was no such appointment
+     */
+    CalendarChange update(long id, String what){
+        return change(id, NO_DAY, 0, what, false);
+    }
+
+    /**
+     * Move one appointment by its id to another day and time, keeping its id and description
+     * @param id the id
+     * @param toDay the epoch day to move it to
+     * @param toMinute the minute of the day to move it to
+     * @return the change, or null if there was no such appointment
+     */
+    CalendarChange move(long id, int toDay, int toMinute){
+        return change(id, toDay, toMinute, null, false);
+    }
+
+    /**
+     * Remove or change one appointment by its id. A changed appointment keeps its id and goes after the others
+     * at its new time, as if it had just been added, which is also how the journal replays it.
+     * @param id the id
+     * @param toDay the epoch day to move it to, or {@link #NO_DAY} to leave its day and time as they are
+     * @param toMinute the minute of the day to move it to
+     * @param what its new description, or null to keep the one it has
+     * @param remove true to remove the appointment instead of changing it
+     * @return the change, or null if there was no such appointment
+     */
+    private CalendarChange change(long id, int toDay, int toMinute, String what, boolean remove){
+        while (true) {
+            long location = this.ids.get(id);
+            if (location == IdIndex.ABSENT) {
+                return null;
+            }
+            int epochDay = IdIndex.dayOf(location);
+            int targetDay = toDay == NO_DAY ? epochDay : toDay;
+            int targetMinute = toDay == NO_DAY ? IdIndex.minuteOf(location) : toMinute;
+            int lockDay = remove ? epochDay : targetDay;
+            lock(epochDay, lockDay);
+            try {
+                if (this.ids.get(id) != location) {
+                    continue; //moved by another thread before the locks were taken
+                }
+                int key = epochDay >> BLOCK_SHIFT;
+                DayBlock block = this.blocks.get(key);
+                DaySlot day = current(block, epochDay);
+                int index = day.indexOf(id, IdIndex.minuteOf(location));
+                LocalDate date = LocalDate.ofEpochDay(epochDay);
+                Appointment previous = day.appointmentAt(index, date.getDayOfMonth());
+                String text = what == null ? previous.getText() : what;
+                int duration = previous.getDuration();
+                if (!remove && targetMinute + duration > Time.MINS_PER_DAY) {
+                    throw new IllegalArgumentException(previous + " would run past midnight at " +
+                            Time.of(targetMinute));
+                }
+
+                CalendarJournal journal = this.journal;
+                if (journal != null) {
+                    journal.removedOne(epochDay, day.minuteAt(index), previous.getText(), duration);
+                    if (!remove) {
+                        journal.added(targetDay, targetMinute, text, duration);
+                    }
+                }
+                TextIndex words = this.text;
+                if (words != null) {
+                    words.remove(id, previous.getText());
+                    if (!remove) {
+                        words.add(id, text);
+                    }
+                }
+                if (this.concurrent) {
+                    day = day.copy();
+                }
+                day.remove(index, index + 1);
+                this.days.add(block.set(epochDay & BLOCK_MASK, day.size() == 0 ? null : day));
+                if (remove) {
+                    this.ids.remove(id);
+                    if (block.occupied == 0 && !this.concurrent) {
+                        this.blocks.remove(key);
+                    }
+                    this.size.decrement();
+                    this.changes.increment();
+                    return new CalendarChange(CalendarChange.Kind.REMOVED, date, previous, null);
+                }
+
+                DayBlock toBlock = this.blocks.computeIfAbsent(targetDay >> BLOCK_SHIFT, b -> new DayBlock());
+                DaySlot to = current(toBlock, targetDay);
+                if (to == null) {
+                    to = new DaySlot();
+                } else if (this.concurrent) {
+                    to = to.copy();
+                }
+                to.insert(targetMinute, text, duration, id);
+                this.days.add(toBlock.set(targetDay & BLOCK_MASK, to));
+                if (block.occupied == 0 && !this.concurrent) {
+                    this.blocks.remove(key);
+                }
+                this.ids.put(id, IdIndex.location(targetDay, targetMinute));
+                this.changes.add(2);
+                LocalDate toDate = LocalDate.ofEpochDay(targetDay);
+                return new CalendarChange(CalendarChange.Kind.CHANGED, toDate,
+                        new Appointment(toDate.getDayOfMonth(), Time.of(targetMinute), text, duration, id), date,
+                        previous);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                unlock(epochDay, lockDay);
+            }
+        }
+    }
+
+    /**
+     * Remove every appointment at a minute of a day with the given text and duration. They are removed one at
+     * a time by id, so each is journaled on its own.
+     * @param epochDay the day
+     * @param minute the minute of the day
+     * @param what the description
+     * @param duration its length in minutes
+     * @param out where the removed appointments are added
+     */
+    void removeEqual(int epochDay, int minute, String what, int duration, List<Appointment> out){
+        while (true) {
+            DaySlot day = slot(epochDay);
+            int index = day == null ? -1 : day.indexOf(minute, what, duration);
+            if (index < 0) {
+                return;
+            }
+            CalendarChange change = remove(day.idAt(index));
+            if (change != null) {
+                out.add(change.getAppointment());
+            }
+        }
+    }
+
+    /**
+     * Remove the first appointment at a minute of a day with the given text and duration. Used to replay the
+     * journal, which records appointments by what they are rather than by id.
+     * @param epochDay the day
+     * @param minute the minute of the day
+     * @param what the description
+     * @param duration its length in minutes, or -1 for any
+     * @return true if there was such an appointment
+     */
+    boolean removeFirst(int epochDay, int minute, String what, int duration){
+        DaySlot day = slot(epochDay);
+        int index = day == null ? -1 : day.indexOf(minute, what, duration);
+        return index >= 0 && remove(day.idAt(index)) != null;
+    }
+
+    /**
+     * Make flyweights of some appointments of a day that are about to be removed
+     * @param day the day
+     * @param from first position
+     * @param to position after the last
+     * @param epochDay which day it is
+     * @param out where the appointments are added, or null to skip this
+     */
+    private static void copyOut(DaySlot day, int from, int to, int epochDay, List<Appointment> out){
+        if (out != null) {
+            int date = LocalDate.ofEpochDay(epochDay).getDayOfMonth();
+            for (int i = from; i < to; i++) {
+                out.add(day.appointmentAt(i, date));
+            }
+        }
+    }
+
+    /**
+     * Seek to the first day on or after the given one that has appointments.
+     * @param epochDay where to start looking
+     * @return that day, or {@link #NO_DAY} if there is none
+     */
+    int nextDay(int epochDay){
+        int key = epochDay >> BLOCK_SHIFT;
+        DayBlock block = this.blocks.get(key);
+        if (block != null) {
+            int later = block.occupied & (-1 << (epochDay & BLOCK_MASK));
+            if (later != 0) {
+                return (key << BLOCK_SHIFT) + Integer.numberOfTrailingZeros(later);
+            }
+        }
+        for (Map.Entry<Integer, DayBlock> next = this.blocks.higherEntry(key); next != null;
+             next = this.blocks.higherEntry(next.getKey())) {
+            int occupied = next.getValue().occupied;
+            if (occupied != 0) {
+                return (next.getKey() << BLOCK_SHIFT) + Integer.numberOfTrailingZeros(occupied);
+            }
+        }
+        return NO_DAY;
+    }
+
+    /**
+     * Collect the appointments from one moment to another, in order. Only days with appointments are
+     * visited and the first and last day are cut with a binary search, so the cost is a seek plus the size of
+     * the result.
+     * @param fromDay epoch day to start at
+     * @param fromMinute minute of fromDay to start at, included
+     * @param toDay epoch day to end at
+     * @param toMinute minute of toDay to end at
+     * @param includeEnd whether appointments at exactly toMinute of toDay are included
+     * @param out where the appointments, and the occurrences of rules, are added, with days of their month as
+     *            dates
+     */
+    void collect(int fromDay, int fromMinute, int toDay, int toMinute, boolean includeEnd, List<Appointment> out){
+        List<Occurrence> extra = this.rules.isEmpty() || fromDay > toDay ? Collections.emptyList() :
+                occurrences(fromDay, toDay, null);
+        int next = 0;
+        for (int epochDay = nextDay(fromDay); epochDay != NO_DAY && epochDay <= toDay;
+             epochDay = nextDay(epochDay + 1)) {
+            DaySlot day = slot(epochDay);
+            if (day == null) {
+                continue; //emptied by another thread since nextDay looked
+            }
+            int start = epochDay == fromDay ? day.search(fromMinute, false) : 0;
+            int end = epochDay == toDay ? day.search(toMinute, includeEnd) : day.size();
+            int date = LocalDate.ofEpochDay(epochDay).getDayOfMonth();
+            for (int i = start; i < end; i++) {
+                while (next < extra.size() && (extra.get(next).epochDay < epochDay ||
+                        extra.get(next).epochDay == epochDay && extra.get(next).minute() < day.minuteAt(i))) {
+                    addIfBetween(extra.get(next++), fromDay, fromMinute, toDay, toMinute, includeEnd, out);
+                }
+                out.add(day.appointmentAt(i, date));
+            }
+        }
+        while (next < extra.size()) {
+            addIfBetween(extra.get(next++), fromDay, fromMinute, toDay, toMinute, includeEnd, out);
+        }
+    }
+
+    /**
+     * Add an occurrence to the result of {@link #collect} unless it is cut off on the first or last day
+     * @param occurrence the occurrence, on a day from fromDay to toDay
+     * @param fromDay epoch day to start at
+     * @param fromMinute minute of fromDay to start at, included
+     * @param toDay epoch day to end at
+     * @param toMinute minute of toDay to end at
+     * @param includeEnd whether toMinute of toDay is included
+     * @param out where the occurrence is added
+     */
+    private static void addIfBetween(Occurrence occurrence, int fromDay, int fromMinute, int toDay, int toMinute,
+                                     boolean includeEnd, List<Appointment> out){
+        int minute = occurrence.minute();
+        if (occurrence.epochDay == fromDay && minute < fromMinute) {
+            return;
+        }
+        if (occurrence.epochDay == toDay && (minute > toMinute || minute == toMinute && !includeEnd)) {
+            return;
+        }
+        out.add(occurrence.appointment);
+    }
+
+    /**
+     * Count the appointments of a run of consecutive days, occurrences of rules included. Only days with
+     * appointments are visited, so the cost is a seek plus the number of busy days and occurrences, however
+     * long the run.
+     * @param fromDay epoch day of counts[0]
+     * @param counts filled with the number of appointments of each day, zero for days without any
+     */
+    void countDays(int fromDay, int[] counts){
+        Arrays.fill(counts, 0);
+        long toDay = (long) fromDay + counts.length - 1;
+        for (int epochDay = nextDay(fromDay); epochDay != NO_DAY && epochDay <= toDay;
+             epochDay = nextDay(epochDay + 1)) {
+            DaySlot day = slot(epochDay);
+            if (day != null) {
+                counts[epochDay - fromDay] = day.size();
+            }
+        }
+        for (Recurrence rule : this.rules.values()) {
+            for (int day = rule.next(fromDay); day != NO_DAY && day <= toDay; day = rule.next(day + 1)) {
+                counts[day - fromDay]++;
+            }
+        }
+    }
+
+    /**
+     * Find the appointments of a day that overlap a range of minutes, occurrences of rules included. The day's
+     * tree of end times finds them without looking at the appointments that start later or end sooner.
+     * @param epochDay the day
+     * @param from first minute of the range
+     * @param to minute after the last one of the range
+     * @param out where the overlapping appointments are added, with days of their month as dates, in order
+     */
+    void conflicts(int epochDay, int from, int to, List<Appointment> out){
+        overlapping(slot(epochDay), epochDay, from, to, out);
+    }
+
+    /**
+     * Make flyweights of the appointments of a day that overlap a range of minutes
+     * @param day the day
+     * @param epochDay which day it is
+     * @param from first minute of the range
+     * @param to minute after the last one of the range
+     * @param out where the appointments are added
+     */
+    private void overlapping(DaySlot day, int epochDay, int from, int to, List<Appointment> out){
+        int before = out.size();
+        if (day != null) {
+            List<Integer> found = new ArrayList<>();
+            day.overlapping(from, to, found);
+            int date = LocalDate.ofEpochDay(epochDay).getDayOfMonth();
+            for (int index : found) {
+                out.add(day.appointmentAt(index, date));
+            }
+        }
+        if (!this.rules.isEmpty()) {
+            boolean added = false;
+            for (Occurrence occurrence : occurrences(epochDay, epochDay, null)) {
+                int start = occurrence.minute();
+                if (start < to && from < start + Math.max(occurrence.appointment.getDuration(), 1)) {
+                    out.add(occurrence.appointment);
+                    added = true;
+                }
+            }
+            if (added) {
+                out.subList(before, out.size()).sort(
+                        (x, y) -> Integer.compare(x.getTime().getMinutes(), y.getTime().getMinutes()));
+            }
+        }
+    }
+
+    /**
+     * Find the free time over a run of days. Each day's bitmap of taken minutes is scanned a word at a time, and
+     * a day with no appointments and no occurrences is free over the whole window without looking at anything.
+     * @param fromDay the first epoch day
+     * @param toDay the last epoch day, included
+     * @param dayStart the first minute of each day to look at
+     * @param dayEnd the minute after the last one of each day to look at, at most 1440
+     * @param minLength the fewest minutes a slot must have to be kept, at least 1
+     * @param out where the free slots are added, in order
+     */
+    void freeSlots(int fromDay, int toDay, int dayStart, int dayEnd, int minLength, List<FreeSlot> out){
+        if (dayEnd - dayStart < minLength) {
+            return;
+        }
+        for (int epochDay = fromDay; epochDay <= toDay; epochDay++) {
+            DaySlot day = slot(epochDay);
+            MinuteBitmap busy = day == null ? null : day.busy();
+            boolean shared = busy != null;
+            for (Recurrence rule : this.rules.values()) {
+                if (rule.next(epochDay) == epochDay) {
+                    if (busy == null || shared) {
+                        //the day's own bitmap is shared, so occurrences go on a copy
+                        busy = busy == null ? new MinuteBitmap() : busy.copy();
+                        shared = false;
+                    }
+                    int start = rule.getTime().getMinutes();
+                    busy.mark(start, start + Math.max(rule.getDuration(), 1));
+                }
+            }
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            if (busy == null) {
+                out.add(new FreeSlot(date, dayStart, dayEnd - dayStart));
+                continue;
+            }
+            int start = busy.nextFree(dayStart);
+            while (start < dayEnd) {
+                int end = Math.min(busy.nextBusy(start), dayEnd);
+                if (end - start >= minLength) {
+                    out.add(new FreeSlot(date, start, end - start));
+                }
+                start = end < dayEnd ? busy.nextFree(end) : dayEnd;
+            }
+        }
+    }
+
+    /**
+     * Return the number of appointments in the store
+     * @return the appointment count
+     */
+    int size(){
+        return this.size.intValue();
+    }
+
+    /**
+     * Return the number of repeating appointments
+     * @return the rule count
+     */
+    int ruleCount(){
+        return this.rules.size();
+    }
+
+    /**
+     * Return the counts and times of the operations on this store
+     * @return the metrics
+     */
+    CalendarMetrics metrics(){
+        return this.metrics;
+    }
+
+    /**
+     * Return the number of days that have appointments
+     * @return the day count
+     */
+    int days(){
+        return this.days.intValue();
+    }
+
+    /**
+     * Return how many appointments have ever been added to or removed from the store
+     * @return the change count
+     */
+    long changes(){
+        return this.changes.sum();
+    }
+
+    /**
+     * Record that the store was saved, or read, when it had seen the given number of changes
+     * @param changes the value of {@link #changes()} that the saved file reflects
+     */
+    void markSaved(long changes){
+        this.savedChanges = changes;
+    }
+
+    /**
+     * Tell whether the store has changed since it was last read or saved
+     * @return true if there are unsaved changes
+     */
+    boolean isDirty(){
+        return this.changes.sum() != this.savedChanges;
+    }
+
+}
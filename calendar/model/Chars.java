@@ -0,0 +1,239 @@
+package calendar.model;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Chars holds the small character-level parsers used when reading calendars and commands. They work on a
+ * range of any CharSequence, so a line never has to be split or copied into substrings first, and they
+ * report bad input by returning a marker value instead of throwing, so callers can decide what an error
+ * costs.
+ */
+final class Chars {
+
+    /**
+     * Returned by {@link #parseEpochDay(CharSequence, int, int)} for text that is not a date
+     */
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    /**
+     * Days from 0000-01-01 to 1970-01-01 in the proleptic Gregorian calendar
+     */
+    private static final int DAYS_0000_TO_1970 = 719_528;
+
+    /**
+     * Cumulative days before each month in a year that is not a leap year
+     */
+    private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+
+
+    private Chars(){
+    }
+
+    /**
+     * Skip the spaces at the start of a range
+     * @param text the characters
+     * @param from start of the range
+     * @param to end of the range, excluded
+     * @return the first position that is not a space, or to
+     */
+    static int skipSpaces(CharSequence text, int from, int to){
+        while (from < to && text.charAt(from) == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Cut the spaces off the end of a range
+     * @param text the characters
+     * @param from start of the range
+     * @param to end of the range, excluded
+     * @return the position after the last character that is not a space, or from
+     */
+    static int trimSpaces(CharSequence text, int from, int to){
+        while (to > from && text.charAt(to - 1) == ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    /**
+     * Find a character in a range
+     * @param text the characters
+     * @param c the character to look for
+     * @param from start of the range
+     * @param to end of the range, excluded
+     * @return the position of the first c, or -1 if there is none
+     */
+    static int indexOf(CharSequence text, char c, int from, int to){
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read a range of decimal digits, ignoring spaces around them
+     * @param text the characters
+     * @param from start of the range
+     * @param to end of the range, excluded
+     * @return the number, or -1 if the range is empty, holds anything but digits, or has more than nine of them
+     */
+    static int parseNumber(CharSequence text, int from, int to){
+        from = skipSpaces(text, from, to);
+        to = trimSpaces(text, from, to);
+        if (from == to || to - from > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Read an ISO date like 2020-03-15, ignoring spaces around it, as {@link java.time.LocalDate#parse} would
+     * but without building a LocalDate.
+     * @param text the characters
+     * @param from start of the range
+     * @param to end of the range, excluded
+     * @return the epoch day of the date, or {@link #NO_DATE} if it is not a real date
+     */
+    static int parseEpochDay(CharSequence text, int from, int to){
+        from = skipSpaces(text, from, to);
+        to = trimSpaces(text, from, to);
+        int yearEnd = indexOf(text, '-', from, to);
+        if (yearEnd - from != 4 || to - yearEnd != 6 || text.charAt(yearEnd + 3) != '-') {
+            return NO_DATE;
+        }
+        int year = parseNumber(text, from, yearEnd);
+        int month = parseNumber(text, yearEnd + 1, yearEnd + 3);
+        int day = parseNumber(text, yearEnd + 4, to);
+        if (year < 0 || month < 1 || month > 12 || day < 1) {
+            return NO_DATE;
+        }
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        int length = month == 12 ? 31 : DAYS_BEFORE_MONTH[month] - DAYS_BEFORE_MONTH[month - 1];
+        if (month == 2 && leap) {
+            length++;
+        }
+        if (day > length) {
+            return NO_DATE;
+        }
+        long days = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400
+                + DAYS_BEFORE_MONTH[month - 1] + (month > 2 && leap ? 1 : 0) + day - 1;
+        return (int) (days - DAYS_0000_TO_1970);
+    }
+
+    /**
+     * Tell whether a description has to be quoted to be read back whole: it has a comma, which would end it,
+     * or starts with a quote, which would be taken for the start of a quoted one
+     * @param text the description
+     * @return true if it has to be quoted
+     */
+    static boolean needsQuotes(CharSequence text){
+        return text.length() > 0 && text.charAt(0) == '"' || indexOf(text, ',', 0, text.length()) >= 0;
+    }
+
+    /**
+     * Write a description between quotes, doubling the quotes in it, as {@link #quotedEnd} reads it back
+     * @param text the description
+     * @param out where it goes
+     */
+    static void quote(CharSequence text, StringBuilder out){
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    /**
+     * Find the end of a quoted description, in which a quote is written twice. It only counts as quoted if
+     * the closing quote is followed by a comma or the end of the range; anything else is a description that
+     * merely starts with a quote, written before quoting existed.
+     * @param text the characters
+     * @param from start of the range, where the opening quote should be
+     * @param to end of the range, excluded
+     * @return the position after the closing quote, or -1 if the range does not start with a quoted description
+     */
+    static int quotedEnd(CharSequence text, int from, int to){
+        if (from >= to || text.charAt(from) != '"') {
+            return -1;
+        }
+        for (int i = from + 1; i < to; i++) {
+            if (text.charAt(i) != '"') {
+                continue;
+            }
+            if (i + 1 < to && text.charAt(i + 1) == '"') {
+                i++;
+            } else {
+                return i + 1 == to || text.charAt(i + 1) == ',' ? i + 1 : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Undo the doubling of quotes inside a quoted description
+     * @param text what was between the quotes
+     * @return the description
+     */
+    static String unquote(String text){
+        return text.indexOf('"') < 0 ? text : text.replace("\"\"", "\"");
+    }
+
+    /**
+     * Read ASCII bytes as characters, for running the parsers over a file without decoding it.
+     * @param bytes the bytes
+     * @return a view of them
+     */
+    static CharSequence ascii(byte[] bytes){
+        return new AsciiView(bytes);
+    }
+
+    /**
+     * The view handed out by {@link #ascii(byte[])}
+     */
+    private static class AsciiView implements CharSequence {
+
+        private final byte[] bytes;
+
+        AsciiView(byte[] bytes){
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length(){
+            return this.bytes.length;
+        }
+
+        @Override
+        public char charAt(int index){
+            return (char) (this.bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end){
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString(){
+            return new String(this.bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+}
@@ -0,0 +1,561 @@
+package calendar.model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ * DaySlot holds the appointments of a single day in columns of primitives instead of one object per
+ * appointment. Times are kept in a short[] of minutes since midnight, in sorted order, ids and durations
+ * beside them, and descriptions are copied into a character heap shared by the day and addressed by offset
+ * and length. Appointment objects are only created as flyweights when somebody reads the day.
+ *
+ * Since the appointments are sorted by start, the ones that can overlap a range are a prefix of the columns;
+ * a tree of the latest end below each node picks the ones in that prefix that really do, without looking at
+ * the others. For free time the day keeps a bitmap of the minutes its appointments take.
+ */
+class DaySlot {
+
+    /**
+     * Starting capacity of the columns, grown by doubling
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Number of appointments in the day
+     */
+    private int size;
+
+    /**
+     * Minute of the day of each appointment, sorted
+     */
+    private short[] minutes;
+
+    /**
+     * Id of each appointment, 0 until the store gives it one
+     */
+    private long[] ids;
+
+    /**
+     * Length of each appointment in minutes, 0 for one that only has a start
+     */
+    private short[] durations;
+
+    /**
+     * Latest end of the appointments below each node of a binary tree over the columns, with the leaves at
+     * ends.length / 2. Built when an overlap query needs it and dropped whenever the day changes.
+     */
+    private volatile int[] ends;
+
+    /**
+     * The minutes the appointments take. Built when free time is asked for and dropped whenever the day
+     * changes.
+     */
+    private volatile MinuteBitmap busy;
+
+    /**
+     * Where each description starts in the text heap
+     */
+    private int[] textStart;
+
+    /**
+     * How many characters each description has
+     */
+    private int[] textLength;
+
+    /**
+     * The characters of every description of the day, back to back
+     */
+    private char[] text;
+
+    /**
+     * How much of the text heap has been handed out
+     */
+    private int textUsed;
+
+    /**
+     * How many characters of the text heap belong to removed appointments
+     */
+    private int textGarbage;
+
+    /**
+     * How many times appointments have been inserted or removed, so a view can tell the day changed under it
+     */
+    private int modCount;
+
+
+    /**
+     * Create an empty day
+     */
+    DaySlot(){
+        this.minutes = new short[INITIAL_CAPACITY];
+        this.ids = new long[INITIAL_CAPACITY];
+        this.durations = new short[INITIAL_CAPACITY];
+        this.textStart = new int[INITIAL_CAPACITY];
+        this.textLength = new int[INITIAL_CAPACITY];
+        this.text = new char[INITIAL_CAPACITY * 16];
+    }
+
+    /**
+     * Create a copy of a day. The columns are copied, but the text heap is shared: the copy only ever
+     * writes past the text that the original uses, or moves to a new heap when it compacts.
+     * @param other the day to copy
+     */
+    private DaySlot(DaySlot other){
+        this.size = other.size;
+        this.minutes = other.minutes.clone();
+        this.ids = other.ids.clone();
+        this.durations = other.durations.clone();
+        this.textStart = other.textStart.clone();
+        this.textLength = other.textLength.clone();
+        this.text = other.text;
+        this.textUsed = other.textUsed;
+        this.textGarbage = other.textGarbage;
+    }
+
+    /**
+     * Make a copy of this day that can be changed while this one is still being read. Concurrent stores
+     * change a copy and then publish it in place of the original.
+     * @return the copy
+     */
+    DaySlot copy(){
+        return new DaySlot(this);
+    }
+
+    /**
+     * Return the number of appointments in the day
+     * @return the size of the columns
+     */
+    int size(){
+        return this.size;
+    }
+
+    /**
+     * Return the time of an appointment as minutes since midnight
+     * @param index position of the appointment in the day
+     * @return the minute of the day
+     */
+    int minuteAt(int index){
+        return this.minutes[index];
+    }
+
+    /**
+     * Return the id of an appointment
+     * @param index position of the appointment in the day
+     * @return its id, or 0 if it has none yet
+     */
+    long idAt(int index){
+        return this.ids[index];
+    }
+
+    /**
+     * Return the duration of an appointment
+     * @param index position of the appointment in the day
+     * @return its length in minutes, 0 if it only has a start
+     */
+    int durationAt(int index){
+        return this.durations[index];
+    }
+
+    /**
+     * Return the minute an appointment ends, counting one that only has a start as taking its first minute
+     * @param index position of the appointment in the day
+     * @return the minute after its last one
+     */
+    private int endAt(int index){
+        return this.minutes[index] + Math.max(this.durations[index], 1);
+    }
+
+    /**
+     * Give an appointment its id
+     * @param index position of the appointment in the day
+     * @param id the id
+     */
+    void setId(int index, long id){
+        this.ids[index] = id;
+    }
+
+    /**
+     * Find an appointment by its id among the ones at its minute
+     * @param id the id
+     * @param minute the minute of the day the appointment is at
+     * @return its position in the day, or -1 if it is not there
+     */
+    int indexOf(long id, int minute){
+        for (int i = search(minute, false); i < this.size && this.minutes[i] == minute; i++) {
+            if (this.ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first appointment with the given text and duration at a minute
+     * @param minute the minute of the day
+     * @param what the description
+     * @param duration its length in minutes, or -1 for any
+     * @return its position in the day, or -1 if there is none
+     */
+    int indexOf(int minute, String what, int duration){
+        for (int i = search(minute, false); i < this.size && this.minutes[i] == minute; i++) {
+            if ((duration < 0 || this.durations[i] == duration) && this.textLength[i] == what.length() &&
+                    textAt(i).equals(what)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Build the description of an appointment out of the text heap
+     * @param index position of the appointment in the day
+     * @return the description
+     */
+    String textAt(int index){
+        return new String(this.text, this.textStart[index], this.textLength[index]);
+    }
+
+    /**
+     * Write the description of an appointment straight out of the text heap, between quotes as
+     * {@link Chars#quote} writes it if it needs them or if asked to
+     * @param index position of the appointment in the day
+     * @param quoted true to quote it whatever it holds, as before a duration
+     * @param out where the characters go
+     * @throws IOException if the writer fails
+     */
+    void writeText(int index, boolean quoted, Writer out) throws IOException {
+        int from = this.textStart[index];
+        int to = from + this.textLength[index];
+        for (int i = from; i < to && !quoted; i++) {
+            quoted = this.text[i] == ',' || i == from && this.text[i] == '"';
+        }
+        if (!quoted) {
+            out.write(this.text, from, to - from);
+            return;
+        }
+        out.write('"');
+        for (int i = from; i < to; i++) {
+            if (this.text[i] == '"') {
+                out.write('"');
+            }
+            out.write(this.text[i]);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Create a flyweight Appointment for one row of the columns
+     * @param index position of the appointment in the day
+     * @param date the date this day represents
+     * @return a new Appointment object
+     */
+    Appointment appointmentAt(int index, int date){
+        return new Appointment(date, Time.of(this.minutes[index]), textAt(index), this.durations[index],
+                this.ids[index]);
+    }
+
+    /**
+     * Find the appointments that overlap a range of minutes. One that only has a start overlaps the range if
+     * it starts inside it.
+     * @param from first minute of the range
+     * @param to minute after the last one of the range
+     * @param out where the positions of the overlapping appointments are added, in order
+     */
+    void overlapping(int from, int to, List<Integer> out){
+        int limit = search(to, false);
+        if (limit == 0) {
+            return;
+        }
+        int[] tree = this.ends;
+        if (tree == null) {
+            tree = buildEnds();
+        }
+        collect(tree, 1, 0, tree.length / 2, limit, from, out);
+    }
+
+    /**
+     * Return the minutes taken by the appointments of the day, one that only has a start taking its first
+     * minute. The bitmap is shared, so it must not be changed.
+     * @return the bitmap
+     */
+    MinuteBitmap busy(){
+        MinuteBitmap bits = this.busy;
+        if (bits == null) {
+            bits = new MinuteBitmap();
+            for (int i = 0; i < this.size; i++) {
+                bits.mark(this.minutes[i], endAt(i));
+            }
+            this.busy = bits;
+        }
+        return bits;
+    }
+
+    /**
+     * Add the positions under one node of the tree that start before a limit and end after a minute
+     * @param tree the latest ends
+     * @param node the node
+     * @param low first position under the node
+     * @param high position after the last one under the node
+     * @param limit position of the first appointment that starts too late
+     * @param from the minute the appointments have to end after
+     * @param out where the positions go
+     */
+    private static void collect(int[] tree, int node, int low, int high, int limit, int from, List<Integer> out){
+        if (low >= limit || tree[node] <= from) {
+            return;
+        }
+        if (high - low == 1) {
+            out.add(low);
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        collect(tree, node * 2, low, mid, limit, from, out);
+        collect(tree, node * 2 + 1, mid, high, limit, from, out);
+    }
+
+    /**
+     * Build the tree of latest ends for the current columns
+     * @return the tree
+     */
+    private int[] buildEnds(){
+        int leaves = Integer.highestOneBit(Math.max(this.size, 1) * 2 - 1);
+        int[] tree = new int[leaves * 2];
+        for (int i = 0; i < this.size; i++) {
+            tree[leaves + i] = endAt(i);
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            tree[node] = Math.max(tree[node * 2], tree[node * 2 + 1]);
+        }
+        this.ends = tree;
+        return tree;
+    }
+
+    /**
+     * Binary search the sorted minutes for the given time.
+     * @param minute the minute of the day to look for
+     * @param after true to get the position after every appointment at that minute, false to get the position
+     *              before them
+     * @return the index in the columns
+     */
+    int search(int minute, boolean after){
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int m = this.minutes[mid];
+            if (m < minute || (after && m == minute)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Add an appointment after the ones already at the same time, keeping the columns sorted.
+     * @param minute the minute of the day
+     * @param what the description
+     * @param duration the length of the appointment in minutes, or 0
+     * @param id the id of the appointment, or 0 to give it one later
+     * @return the position of the new appointment
+     */
+    int insert(int minute, String what, int duration, long id){
+        this.modCount++;
+        int index = search(minute, true);
+        if (this.size == this.minutes.length) {
+            int capacity = this.size * 2;
+            this.minutes = Arrays.copyOf(this.minutes, capacity);
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.durations = Arrays.copyOf(this.durations, capacity);
+            this.textStart = Arrays.copyOf(this.textStart, capacity);
+            this.textLength = Arrays.copyOf(this.textLength, capacity);
+        }
+        int moved = this.size - index;
+        System.arraycopy(this.minutes, index, this.minutes, index + 1, moved);
+        System.arraycopy(this.ids, index, this.ids, index + 1, moved);
+        System.arraycopy(this.durations, index, this.durations, index + 1, moved);
+        System.arraycopy(this.textStart, index, this.textStart, index + 1, moved);
+        System.arraycopy(this.textLength, index, this.textLength, index + 1, moved);
+
+        int length = what.length();
+        if (this.textUsed + length > this.text.length) {
+            this.text = Arrays.copyOf(this.text, Math.max(this.text.length * 2, this.textUsed + length));
+        }
+        what.getChars(0, length, this.text, this.textUsed);
+
+        this.minutes[index] = (short) minute;
+        this.ids[index] = id;
+        this.durations[index] = (short) duration;
+        this.textStart[index] = this.textUsed;
+        this.textLength[index] = length;
+        this.textUsed += length;
+        this.size++;
+        this.ends = null;
+        this.busy = null;
+        return index;
+    }
+
+    /**
+     * Add a run of appointments that is already sorted by time, in one merge from the back of the columns.
+     * Like {@link #insert(int, String, int, long)}, each one goes after the appointments already at its time.
+     * @param newMinutes minute of the day of each appointment
+     * @param newTexts description of each appointment
+     * @param newDurations length of each appointment in minutes, or null if none of them has one
+     * @param newIds id of each appointment
+     * @param order positions in newMinutes, newTexts, newDurations and newIds, sorted by minute
+     * @param from first entry of order to add
+     * @param to entry of order after the last one to add
+     */
+    void insertSorted(short[] newMinutes, String[] newTexts, short[] newDurations, long[] newIds, int[] order,
+                      int from, int to){
+        int count = to - from;
+        int total = this.size + count;
+        if (total > this.minutes.length) {
+            int capacity = Math.max(total, this.size * 2);
+            this.minutes = Arrays.copyOf(this.minutes, capacity);
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.durations = Arrays.copyOf(this.durations, capacity);
+            this.textStart = Arrays.copyOf(this.textStart, capacity);
+            this.textLength = Arrays.copyOf(this.textLength, capacity);
+        }
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            length += newTexts[order[i]].length();
+        }
+        if (this.textUsed + length > this.text.length) {
+            this.text = Arrays.copyOf(this.text, Math.max(this.text.length * 2, this.textUsed + length));
+        }
+
+        int old = this.size - 1;
+        int run = to - 1;
+        int textEnd = this.textUsed + length;
+        for (int at = total - 1; run >= from; at--) {
+            int entry = order[run];
+            if (old >= 0 && this.minutes[old] > newMinutes[entry]) {
+                this.minutes[at] = this.minutes[old];
+                this.ids[at] = this.ids[old];
+                this.durations[at] = this.durations[old];
+                this.textStart[at] = this.textStart[old];
+                this.textLength[at] = this.textLength[old];
+                old--;
+            } else {
+                String what = newTexts[entry];
+                textEnd -= what.length();
+                what.getChars(0, what.length(), this.text, textEnd);
+                this.minutes[at] = newMinutes[entry];
+                this.ids[at] = newIds[entry];
+                this.durations[at] = newDurations == null ? 0 : newDurations[entry];
+                this.textStart[at] = textEnd;
+                this.textLength[at] = what.length();
+                run--;
+            }
+        }
+        this.textUsed += length;
+        this.size = total;
+        this.ends = null;
+        this.busy = null;
+    }
+
+    /**
+     * Remove the appointments in positions from (inclusive) to to (exclusive). Their text is left behind in
+     * the heap until enough of it is garbage to be worth compacting.
+     * @param from first position to remove
+     * @param to position after the last one to remove
+     */
+    void remove(int from, int to){
+        if (from >= to) {
+            return;
+        }
+        this.modCount++;
+        for (int i = from; i < to; i++) {
+            this.textGarbage += this.textLength[i];
+        }
+        int moved = this.size - to;
+        System.arraycopy(this.minutes, to, this.minutes, from, moved);
+        System.arraycopy(this.ids, to, this.ids, from, moved);
+        System.arraycopy(this.durations, to, this.durations, from, moved);
+        System.arraycopy(this.textStart, to, this.textStart, from, moved);
+        System.arraycopy(this.textLength, to, this.textLength, from, moved);
+        this.size -= to - from;
+        this.ends = null;
+        this.busy = null;
+
+        if (this.textGarbage > this.textUsed / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Rebuild the text heap with only the descriptions still in use.
+     */
+    private void compact(){
+        char[] live = new char[Math.max(INITIAL_CAPACITY * 16, this.textUsed - this.textGarbage)];
+        int used = 0;
+        for (int i = 0; i < this.size; i++) {
+            System.arraycopy(this.text, this.textStart[i], live, used, this.textLength[i]);
+            this.textStart[i] = used;
+            used += this.textLength[i];
+        }
+        this.text = live;
+        this.textUsed = used;
+        this.textGarbage = 0;
+    }
+
+    /**
+     * Return a read-only, live list view of the day. Each get() creates a flyweight Appointment from the
+     * columns. Like the iterator of an ArrayList, the view fails fast: once an appointment is inserted into
+     * or removed from the day, using it throws ConcurrentModificationException.
+     * @param date the date this day represents
+     * @return the view
+     */
+    List<Appointment> view(int date){
+        return new DayView(date);
+    }
+
+    /**
+     * The read-only list handed out by {@link #view(int)}
+     */
+    private class DayView extends AbstractList<Appointment> implements RandomAccess {
+
+        private final int date;
+
+        private final int expectedModCount = DaySlot.this.modCount;
+
+        DayView(int date){
+            this.date = date;
+        }
+
+        /**
+         * Make sure the day has not changed since the view was made
+         * @throws ConcurrentModificationException if it has
+         */
+        private void checkForComodification(){
+            if (DaySlot.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public Appointment get(int index){
+            checkForComodification();
+            if (index < 0 || index >= DaySlot.this.size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of " + DaySlot.this.size);
+            }
+            return appointmentAt(index, this.date);
+        }
+
+        @Override
+        public int size(){
+            checkForComodification();
+            return DaySlot.this.size;
+        }
+    }
+
+}
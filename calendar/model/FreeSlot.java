@@ -0,0 +1,116 @@
+package calendar.model;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
+
+/**
+ * FreeSlot is a run of minutes on one day that no appointment takes, as found by
+ * {@link Calendar#findFreeSlots(LocalDate, LocalDate, int)}.
+ */
+public final class FreeSlot {
+
+    /**
+     * The full date of the slot
+     */
+    private final LocalDate date;
+
+    /**
+     * The first free minute of the day
+     */
+    private final int start;
+
+    /**
+     * How many minutes are free from the start
+     */
+    private final int minutes;
+
+
+    /**
+     * Create a free slot
+     * @param date the full date
+     * @param start the first free minute of the day
+     * @param minutes how many minutes are free
+     */
+    FreeSlot(LocalDate date, int start, int minutes){
+        this.date = date;
+        this.start = start;
+        this.minutes = minutes;
+    }
+
+    /**
+     * Return the date of the slot
+     * @return the full date
+     */
+    public LocalDate getDate(){
+        return this.date;
+    }
+
+    /**
+     * Return when the slot starts
+     * @return the first free time
+     */
+    public Time getStart(){
+        return Time.of(this.start);
+    }
+
+    /**
+     * Return when the slot ends
+     * @return the time just after the last free minute, 00:00 for a slot that lasts to the end of the day, the
+     *         same as {@link Appointment#getEnd()}
+     */
+    public Time getEnd(){
+        return Time.of((this.start + this.minutes) % Time.MINS_PER_DAY);
+    }
+
+    /**
+     * Return the length of the slot
+     * @return the number of free minutes
+     */
+    public int getMinutes(){
+        return this.minutes;
+    }
+
+    /**
+     * Check if another object is the same slot
+     * @param other the object to compare
+     * @return true if it is a slot with the same date, start and length
+     */
+    @Override
+    public boolean equals(Object other){
+        if (!(other instanceof FreeSlot)) {
+            return false;
+        }
+        FreeSlot slot = (FreeSlot) other;
+        return this.date.equals(slot.date) && this.start == slot.start && this.minutes == slot.minutes;
+    }
+
+    /**
+     * Hash the slot
+     * @return a hash of the date, start and length
+     */
+    @Override
+    public int hashCode(){
+        return Objects.hash(this.date, this.start, this.minutes);
+    }
+
+    /**
+     * Describe the slot
+     * @return something like "2024-03-05 12:30-14:00 (90 minutes)"
+     */
+    @Override
+    public String toString(){
+        return toString(TimeFormat.CANONICAL);
+    }
+
+    /**
+     * Describe the slot with times in a given format
+     * @param format how to write the times
+     * @return the date, the start and end times and the length
+     */
+    public String toString(TimeFormat format){
+        return this.date + " " + format.format(this.start) + "-" + getEnd().toString(format)
+                + " (" + this.minutes + " minutes)";
+    }
+
+}
@@ -0,0 +1,209 @@
+package calendar.model;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * IdIndex maps the id of every appointment in a store to where it is: its day and minute, packed into one long.
+ * It is a hash table of primitives with open addressing, so millions of appointments cost two longs of table
+ * each instead of a boxed entry. The table is split into segments by id, each with its own lock, so threads
+ * adding to different days of a concurrent store seldom wait for each other here.
+ */
+class IdIndex {
+
+    /**
+     * What {@link #get(long)} returns for an id that is not in the index
+     */
+    static final long ABSENT = Long.MIN_VALUE;
+
+    /**
+     * Number of segments, a power of two
+     */
+    private static final int SEGMENTS = 64;
+
+    /**
+     * Starting capacity of each segment, a power of two
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The segments, chosen by the low bits of the id
+     */
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+
+    /**
+     * One part of the table, with linear probing. Id 0 marks an empty bucket, which is why ids start at 1.
+     */
+    private static final class Segment extends ReentrantLock {
+        /**
+         * Segments are never serialized, but ReentrantLock is Serializable
+         */
+        private static final long serialVersionUID = 1L;
+
+        long[] keys = new long[INITIAL_CAPACITY];
+        long[] values = new long[INITIAL_CAPACITY];
+        int size;
+    }
+
+    /**
+     * Create an empty index
+     */
+    IdIndex(){
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Pack a day and a minute into a location
+     * @param epochDay the day
+     * @param minute the minute of the day
+     * @return the location
+     */
+    static long location(int epochDay, int minute){
+        return (long) epochDay << 16 | minute;
+    }
+
+    /**
+     * Unpack the day of a location
+     * @param location the location
+     * @return the epoch day
+     */
+    static int dayOf(long location){
+        return (int) (location >> 16);
+    }
+
+    /**
+     * Unpack the minute of a location
+     * @param location the location
+     * @return the minute of the day
+     */
+    static int minuteOf(long location){
+        return (int) (location & 0xFFFF);
+    }
+
+    /**
+     * Find where an appointment is
+     * @param id its id
+     * @return its location, or {@link #ABSENT}
+     */
+    long get(long id){
+        Segment segment = segment(id);
+        segment.lock();
+        try {
+            int bucket = find(segment, id);
+            return segment.keys[bucket] == id ? segment.values[bucket] : ABSENT;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Record where an appointment is, replacing where it was
+     * @param id its id, not 0
+     * @param location its location
+     */
+    void put(long id, long location){
+        Segment segment = segment(id);
+        segment.lock();
+        try {
+            int bucket = find(segment, id);
+            if (segment.keys[bucket] != id) {
+                segment.keys[bucket] = id;
+                segment.size++;
+            }
+            segment.values[bucket] = location;
+            if (segment.size * 4 > segment.keys.length * 3) {
+                grow(segment);
+            }
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Forget an appointment
+     * @param id its id
+     */
+    void remove(long id){
+        Segment segment = segment(id);
+        segment.lock();
+        try {
+            int bucket = find(segment, id);
+            if (segment.keys[bucket] != id) {
+                return;
+            }
+            //shift later entries of the probe run back, so no run is broken by the hole
+            long[] keys = segment.keys;
+            int mask = keys.length - 1;
+            int hole = bucket;
+            for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    segment.values[hole] = segment.values[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = 0;
+            segment.size--;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Pick the segment of an id
+     * @param id the id
+     * @return its segment
+     */
+    private Segment segment(long id){
+        return this.segments[(int) id & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Find the bucket of an id, or the empty bucket where it would go
+     * @param segment the segment of the id
+     * @param id the id
+     * @return the bucket
+     */
+    private static int find(Segment segment, long id){
+        long[] keys = segment.keys;
+        int mask = keys.length - 1;
+        int bucket = hash(id) & mask;
+        while (keys[bucket] != 0 && keys[bucket] != id) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    /**
+     * Spread the bits of an id that are not used to pick its segment
+     * @param id the id
+     * @return the hash
+     */
+    private static int hash(long id){
+        long h = (id >>> 6) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Double the table of a segment
+     * @param segment the segment
+     */
+    private static void grow(Segment segment){
+        long[] oldKeys = segment.keys;
+        long[] oldValues = segment.values;
+        segment.keys = new long[oldKeys.length * 2];
+        segment.values = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int bucket = find(segment, oldKeys[i]);
+                segment.keys[bucket] = oldKeys[i];
+                segment.values[bucket] = oldValues[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package calendar.model;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * LatencyHistogram counts how long one kind of operation takes, in buckets that double in width: bucket b holds
+ * the times from 2^(b-1) to 2^b - 1 nanoseconds. Every bucket is a {@link LongAdder}, which spreads its count
+ * over cells when threads contend, so recording from many threads at once costs about one uncontended add.
+ * Percentiles are only as exact as the buckets, within a factor of two, which is plenty to see a stall.
+ */
+final class LatencyHistogram {
+
+    /**
+     * One bucket for each possible bit length of a time in nanoseconds
+     */
+    private static final int BUCKETS = 64;
+
+    /**
+     * The counts of each bucket
+     */
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    /**
+     * The sum of every time recorded, in nanoseconds
+     */
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * The longest time recorded, in nanoseconds
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+
+    /**
+     * Create an empty histogram
+     */
+    LatencyHistogram(){
+        for (int b = 0; b < BUCKETS; b++) {
+            this.buckets[b] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count one operation
+     * @param nanos how long it took
+     */
+    void record(long nanos){
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.buckets[Math.min(BUCKETS - Long.numberOfLeadingZeros(nanos), BUCKETS - 1)].increment();
+        this.total.add(nanos);
+        this.max.accumulate(nanos);
+    }
+
+    /**
+     * Return how many operations were counted
+     * @return the count
+     */
+    long count(){
+        long count = 0;
+        for (LongAdder bucket : this.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Return the mean time
+     * @return the mean in microseconds, 0 if nothing was counted
+     */
+    double meanMicros(){
+        long count = count();
+        return count == 0 ? 0 : this.total.sum() / 1000.0 / count;
+    }
+
+    /**
+     * Return a time that a given share of the operations took no longer than: the top of the bucket the
+     * percentile falls in, or the longest time if that is less
+     * @param percentile the share, from 0 to 100
+     * @return the time in microseconds, 0 if nothing was counted
+     */
+    double percentileMicros(double percentile){
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = this.buckets[b].sum();
+            count += counts[b];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                long top = b == BUCKETS - 1 ? Long.MAX_VALUE : (1L << b) - 1;
+                return Math.min(top, this.max.get()) / 1000.0;
+            }
+        }
+        return this.max.get() / 1000.0;
+    }
+
+    /**
+     * Return the longest time
+     * @return the time in microseconds, 0 if nothing was counted
+     */
+    double maxMicros(){
+        return this.max.get() / 1000.0;
+    }
+
+    /**
+     * Forget everything counted so far. Operations counted while this runs may be partly forgotten.
+     */
+    void reset(){
+        for (LongAdder bucket : this.buckets) {
+            bucket.reset();
+        }
+        this.total.reset();
+        this.max.reset();
+    }
+
+}
@@ -0,0 +1,118 @@
+package calendar.model;
+
+import java.util.Arrays;
+
+
+/**
+ * MinuteBitmap is one bit for each minute of a day, set when the minute is taken: 1440 bits in 23 longs.
+ * Finding where a free or busy run starts or ends looks at a whole word at a time, so scanning a day for free
+ * time costs a few dozen word operations however many appointments it has.
+ */
+final class MinuteBitmap {
+
+    /**
+     * Number of longs needed for a day of minutes
+     */
+    static final int WORDS = (Time.MINS_PER_DAY + 63) / 64;
+
+    /**
+     * The bits, minute m at bit m % 64 of word m / 64. The bits past the end of the day are never set.
+     */
+    private final long[] words;
+
+
+    /**
+     * Create a day with every minute free
+     */
+    MinuteBitmap(){
+        this.words = new long[WORDS];
+    }
+
+    /**
+     * Create a copy of another bitmap
+     * @param other the bitmap to copy
+     */
+    private MinuteBitmap(MinuteBitmap other){
+        this.words = other.words.clone();
+    }
+
+    /**
+     * Make a copy that can be changed without changing this one
+     * @return the copy
+     */
+    MinuteBitmap copy(){
+        return new MinuteBitmap(this);
+    }
+
+    /**
+     * Mark a run of minutes as taken
+     * @param from first minute, included
+     * @param to minute after the last one, at most 1440
+     */
+    void mark(int from, int to){
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long head = -1L << from;
+        long tail = -1L >>> -to;
+        if (first == last) {
+            this.words[first] |= head & tail;
+            return;
+        }
+        this.words[first] |= head;
+        Arrays.fill(this.words, first + 1, last, -1L);
+        this.words[last] |= tail;
+    }
+
+    /**
+     * Find the first free minute at or after a minute
+     * @param from where to start looking
+     * @return that minute, or 1440 if the rest of the day is taken
+     */
+    int nextFree(int from){
+        int word = from >>> 6;
+        if (word >= WORDS) {
+            return Time.MINS_PER_DAY;
+        }
+        long free = ~this.words[word] & (-1L << from);
+        while (free == 0) {
+            if (++word == WORDS) {
+                return Time.MINS_PER_DAY;
+            }
+            free = ~this.words[word];
+        }
+        return Math.min(Time.MINS_PER_DAY, word * 64 + Long.numberOfTrailingZeros(free));
+    }
+
+    /**
+     * Find the first taken minute at or after a minute
+     * @param from where to start looking
+     * @return that minute, or 1440 if the rest of the day is free
+     */
+    int nextBusy(int from){
+        int word = from >>> 6;
+        if (word >= WORDS) {
+            return Time.MINS_PER_DAY;
+        }
+        long busy = this.words[word] & (-1L << from);
+        while (busy == 0) {
+            if (++word == WORDS) {
+                return Time.MINS_PER_DAY;
+            }
+            busy = this.words[word];
+        }
+        return word * 64 + Long.numberOfTrailingZeros(busy);
+    }
+
+    /**
+     * Tell whether a minute is taken
+     * @param minute the minute of the day
+     * @return true if it is marked
+     */
+    boolean isBusy(int minute){
+        return (this.words[minute >>> 6] & 1L << minute) != 0;
+    }
+
+}
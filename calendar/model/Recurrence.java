@@ -0,0 +1,483 @@
+package calendar.model;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+
+/**
+ * Recurrence is an appointment that repeats: every day, every week, or every so many days from a first date,
+ * until a last date, for a number of times, or for ever, minus any dates it is skipped on. A calendar keeps
+ * the rule once instead of a row per date, and works out its dates with arithmetic only for the days a query
+ * asks about, so a daily rule costs the same whether it runs for a week or for ten years.
+ *
+ * A Recurrence never changes; {@link #until(LocalDate)}, {@link #times(int)} and {@link #except(LocalDate)}
+ * return changed copies.
+ */
+public final class Recurrence {
+
+    /**
+     * Returned by {@link #next(int)} when there are no more occurrences
+     */
+    static final int NO_DAY = CalendarStore.NO_DAY;
+
+    /**
+     * The first date
+     */
+    private final LocalDate start;
+
+    /**
+     * Time of day of every occurrence
+     */
+    private final Time time;
+
+    /**
+     * Description of every occurrence
+     */
+    private final String what;
+
+    /**
+     * How many minutes each occurrence lasts, or 0
+     */
+    private final int duration;
+
+    /**
+     * Days from one occurrence to the next
+     */
+    private final int every;
+
+    /**
+     * The last date an occurrence may fall on, or null for no such limit
+     */
+    private final LocalDate until;
+
+    /**
+     * How many occurrences there are, skipped ones included, or 0 for no such limit
+     */
+    private final int count;
+
+    /**
+     * Epoch days of the skipped occurrences, sorted
+     */
+    private final int[] exceptions;
+
+    /**
+     * The id the calendar gave this rule, or 0 if it is not in a calendar
+     */
+    private final long id;
+
+    /**
+     * Epoch day of the first occurrence
+     */
+    private final int startDay;
+
+    /**
+     * Epoch day of the last possible occurrence, from until and count
+     */
+    private final long lastDay;
+
+
+    /**
+     * Create a rule that repeats for ever
+     * @param start the first date
+     * @param time time of day of every occurrence
+     * @param what description of every occurrence, without commas
+     * @param duration how many minutes each occurrence lasts, or 0 if it only has a start
+     * @param every how many days from one occurrence to the next, 1 for daily and 7 for weekly
+     * @throws IllegalArgumentException if every is less than 1, the description has a comma, or the
+     *                                  duration is negative or runs past midnight
+     */
+    public Recurrence(LocalDate start, Time time, String what, int duration, int every){
+        this(start, time, what, duration, every, null, 0, new int[0], 0);
+    }
+
+    /**
+     * Create a rule with every field given
+     * @param start the first date
+     * @param time time of day
+     * @param what description
+     * @param duration minutes each occurrence lasts
+     * @param every days between occurrences
+     * @param until last date, or null
+     * @param count number of occurrences, or 0
+     * @param exceptions sorted epoch days that are skipped
+     * @param id the id, or 0
+     */
+    private Recurrence(LocalDate start, Time time, String what, int duration, int every, LocalDate until,
+                       int count, int[] exceptions, long id){
+        if (every < 1) {
+            throw new IllegalArgumentException("A rule has to repeat at least a day apart, not " + every);
+        }
+        if (what.indexOf(',') >= 0 || what.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("A repeating description cannot have a comma: " + what);
+        }
+        int minute = time.getMinutes();
+        if (minute < 0 || minute >= Time.MINS_PER_DAY || duration < 0 || minute + duration > Time.MINS_PER_DAY) {
+            throw new IllegalArgumentException("An appointment at " + time + " cannot last " + duration +
+                    " minutes");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("Cannot repeat " + count + " times");
+        }
+        this.start = start;
+        this.time = time;
+        this.what = what;
+        this.duration = duration;
+        this.every = every;
+        this.until = until;
+        this.count = count;
+        this.exceptions = exceptions;
+        this.id = id;
+        this.startDay = Math.toIntExact(start.toEpochDay());
+        long last = Integer.MAX_VALUE - 1L;
+        if (until != null) {
+            last = Math.min(last, until.toEpochDay());
+        }
+        if (count > 0) {
+            last = Math.min(last, this.startDay + (count - 1L) * every);
+        }
+        this.lastDay = last;
+    }
+
+    /**
+     * Create a rule that repeats every day
+     * @param start the first date
+     * @param time time of day of every occurrence
+     * @param what description of every occurrence
+     * @return the rule
+     */
+    public static Recurrence daily(LocalDate start, Time time, String what){
+        return new Recurrence(start, time, what, 0, 1);
+    }
+
+    /**
+     * Create a rule that repeats every week on the weekday of its first date
+     * @param start the first date
+     * @param time time of day of every occurrence
+     * @param what description of every occurrence
+     * @return the rule
+     */
+    public static Recurrence weekly(LocalDate start, Time time, String what){
+        return new Recurrence(start, time, what, 0, 7);
+    }
+
+    /**
+     * Return a copy of this rule that stops after a date
+     * @param last the last date an occurrence may fall on, or null for no limit
+     * @return the copy
+     */
+    public Recurrence until(LocalDate last){
+        return new Recurrence(this.start, this.time, this.what, this.duration, this.every, last, this.count,
+                this.exceptions, this.id);
+    }
+
+    /**
+     * Return a copy of this rule that stops after a number of occurrences. Skipped occurrences count too, so
+     * skipping one does not push the end of the series back.
+     * @param times the number of occurrences, or 0 for no limit
+     * @return the copy
+     */
+    public Recurrence times(int times){
+        return new Recurrence(this.start, this.time, this.what, this.duration, this.every, this.until, times,
+                this.exceptions, this.id);
+    }
+
+    /**
+     * Return a copy of this rule that skips a date
+     * @param date the date, which makes no difference unless the rule falls on it
+     * @return the copy
+     */
+    public Recurrence except(LocalDate date){
+        int day = Math.toIntExact(date.toEpochDay());
+        int at = Arrays.binarySearch(this.exceptions, day);
+        if (at >= 0) {
+            return this;
+        }
+        at = -at - 1;
+        int[] skipped = new int[this.exceptions.length + 1];
+        System.arraycopy(this.exceptions, 0, skipped, 0, at);
+        skipped[at] = day;
+        System.arraycopy(this.exceptions, at, skipped, at + 1, this.exceptions.length - at);
+        return new Recurrence(this.start, this.time, this.what, this.duration, this.every, this.until,
+                this.count, skipped, this.id);
+    }
+
+    /**
+     * Return a copy of this rule with the id a calendar gave it
+     * @param id the id
+     * @return the copy
+     */
+    Recurrence withId(long id){
+        return new Recurrence(this.start, this.time, this.what, this.duration, this.every, this.until,
+                this.count, this.exceptions, id);
+    }
+
+    /**
+     * Return the first date
+     * @return the date of the first occurrence, unless it is skipped
+     */
+    public LocalDate getStart(){
+        return this.start;
+    }
+
+    /**
+     * Return the time of day of the occurrences
+     * @return the time
+     */
+    public Time getTime(){
+        return this.time;
+    }
+
+    /**
+     * Return the description of the occurrences
+     * @return the description
+     */
+    public String getText(){
+        return this.what;
+    }
+
+    /**
+     * Return how long each occurrence lasts
+     * @return the duration in minutes, 0 if they only have a start
+     */
+    public int getDuration(){
+        return this.duration;
+    }
+
+    /**
+     * Return how far apart the occurrences are
+     * @return the number of days from one to the next
+     */
+    public int getEvery(){
+        return this.every;
+    }
+
+    /**
+     * Return the last date an occurrence may fall on
+     * @return the date, or null if the rule has no such limit
+     */
+    public LocalDate getUntil(){
+        return this.until;
+    }
+
+    /**
+     * Return how many times the rule repeats
+     * @return the number of occurrences, skipped ones included, or 0 if the rule has no such limit
+     */
+    public int getCount(){
+        return this.count;
+    }
+
+    /**
+     * Return the dates the rule is skipped on
+     * @return the dates, sorted
+     */
+    public SortedSet<LocalDate> getExceptions(){
+        SortedSet<LocalDate> dates = new TreeSet<>();
+        for (int day : this.exceptions) {
+            dates.add(LocalDate.ofEpochDay(day));
+        }
+        return Collections.unmodifiableSortedSet(dates);
+    }
+
+    /**
+     * Return the id of the rule. Every occurrence of the rule has it as its {@link Appointment#getId()}.
+     * @return the id, or 0 if the rule is not in a calendar
+     */
+    public long getId(){
+        return this.id;
+    }
+
+    /**
+     * Tell whether the rule has an occurrence on a date
+     * @param date the date
+     * @return true if the rule falls on it and it is not skipped
+     */
+    public boolean occursOn(LocalDate date){
+        int day = Math.toIntExact(date.toEpochDay());
+        return next(day) == day;
+    }
+
+    /**
+     * Find the first occurrence on or after a day, stepping over skipped ones
+     * @param epochDay where to start looking
+     * @return the epoch day of that occurrence, or {@link #NO_DAY} if there are no more
+     */
+    int next(int epochDay){
+        long day = this.startDay;
+        if (epochDay > this.startDay) {
+            long steps = ((long) epochDay - this.startDay + this.every - 1) / this.every;
+            day += steps * this.every;
+        }
+        while (day <= this.lastDay && Arrays.binarySearch(this.exceptions, (int) day) >= 0) {
+            day += this.every;
+        }
+        return day > this.lastDay ? NO_DAY : (int) day;
+    }
+
+    /**
+     * Make the occurrence of a day
+     * @param epochDay a day the rule falls on
+     * @return a flyweight Appointment, with the day of its month as date and the rule's id
+     */
+    Appointment occurrence(int epochDay){
+        return new Appointment(LocalDate.ofEpochDay(epochDay).getDayOfMonth(), this.time, this.what,
+                this.duration, this.id, true);
+    }
+
+    /**
+     * Read a rule written by {@link #csvFormat()}. The line is read in place with indexOf, like
+     * {@link Appointment#fromString(String)}, instead of being split.
+     * @param line every,start,time,description,duration,until,count,exceptions with until and count possibly
+     *             empty and the exceptions as ISO dates separated by spaces
+     * @return the rule
+     * @throws NumberFormatException if a field cannot be read
+     * @throws IllegalArgumentException if the fields do not make a rule
+     */
+    public static Recurrence fromString(String line){
+        int everyEnd = line.indexOf(',');
+        int startEnd = everyEnd < 0 ? -1 : line.indexOf(',', everyEnd + 1);
+        int timeEnd = startEnd < 0 ? -1 : line.indexOf(',', startEnd + 1);
+        int countEnd = line.lastIndexOf(',');
+        int untilEnd = countEnd < 0 ? -1 : line.lastIndexOf(',', countEnd - 1);
+        int durationEnd = untilEnd < 0 ? -1 : line.lastIndexOf(',', untilEnd - 1);
+        int textEnd = durationEnd < 0 ? -1 : line.lastIndexOf(',', durationEnd - 1);
+        if (timeEnd < 0 || textEnd <= timeEnd) {
+            throw new NumberFormatException("Expected every,start,time,description,duration,until,count," +
+                    "exceptions: " + line);
+        }
+        int every = Chars.parseNumber(line, 0, everyEnd);
+        int minutes = Time.parseMinutes(line, startEnd + 1, timeEnd);
+        int duration = Chars.parseNumber(line, textEnd + 1, durationEnd);
+        if (every < 0 || minutes < 0 || duration < 0) {
+            throw new NumberFormatException("Bad number or time: " + line);
+        }
+        Recurrence rule = new Recurrence(parseDay(line, everyEnd + 1, startEnd), Time.of(minutes),
+                line.substring(timeEnd + 1, textEnd), duration, every);
+        if (Chars.skipSpaces(line, durationEnd + 1, untilEnd) < untilEnd) {
+            rule = rule.until(parseDay(line, durationEnd + 1, untilEnd));
+        }
+        if (Chars.skipSpaces(line, untilEnd + 1, countEnd) < countEnd) {
+            int count = Chars.parseNumber(line, untilEnd + 1, countEnd);
+            if (count < 0) {
+                throw new NumberFormatException("Bad count: " + line);
+            }
+            rule = rule.times(count);
+        }
+        for (int from = Chars.skipSpaces(line, countEnd + 1, line.length()); from < line.length(); ) {
+            int to = Chars.indexOf(line, ' ', from, line.length());
+            if (to < 0) {
+                to = line.length();
+            }
+            rule = rule.except(parseDay(line, from, to));
+            from = Chars.skipSpaces(line, to, line.length());
+        }
+        return rule;
+    }
+
+    /**
+     * Read an ISO date out of part of a rule line
+     * @param line the line
+     * @param from start of the date
+     * @param to end of the date, excluded
+     * @return the date
+     * @throws NumberFormatException if it is not a date
+     */
+    private static LocalDate parseDay(String line, int from, int to){
+        int epochDay = Chars.parseEpochDay(line, from, to);
+        if (epochDay == Chars.NO_DATE) {
+            throw new NumberFormatException("Bad date: " + line);
+        }
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * Return the rule as a line of comma separated values, the way calendar files store it
+     * @return every,start,time,description,duration,until,count,exceptions
+     */
+    public String csvFormat(){
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.every).append(',').append(this.start).append(',').append(this.time).append(',');
+        sb.append(this.what).append(',').append(this.duration).append(',');
+        if (this.until != null) {
+            sb.append(this.until);
+        }
+        sb.append(',');
+        if (this.count > 0) {
+            sb.append(this.count);
+        }
+        sb.append(',');
+        for (int i = 0; i < this.exceptions.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(LocalDate.ofEpochDay(this.exceptions[i]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compare two rules by what they describe, not by id
+     * @param other another object
+     * @return true if it is a rule with the same dates, time, description and duration
+     */
+    @Override
+    public boolean equals(Object other){
+        if (!(other instanceof Recurrence)) {
+            return false;
+        }
+        Recurrence rule = (Recurrence) other;
+        return this.startDay == rule.startDay && this.time.equals(rule.time) && this.what.equals(rule.what)
+                && this.duration == rule.duration && this.every == rule.every
+                && Objects.equals(this.until, rule.until) && this.count == rule.count
+                && Arrays.equals(this.exceptions, rule.exceptions);
+    }
+
+    /**
+     * Hash the rule consistently with equals
+     * @return the hash code
+     */
+    @Override
+    public int hashCode(){
+        return (this.startDay * 31 + this.every) * 683 + this.time.hashCode() + this.what.hashCode();
+    }
+
+    /**
+     * Describe the rule
+     * @return something like "every 7 days from 2024-03-04 09:30----standup"
+     */
+    @Override
+    public String toString(){
+        return toString(TimeFormat.CANONICAL);
+    }
+
+    /**
+     * Describe the rule, with its time in the given format
+     * @param format how to show the time
+     * @return something like "every 7 days from 2024-03-04 09:30----standup, until 2024-06-30"
+     */
+    public String toString(TimeFormat format){
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.every == 1 ? "every day" : "every " + this.every + " days");
+        sb.append(" from ").append(this.start).append(' ').append(this.time.toString(format));
+        if (this.duration > 0) {
+            sb.append('-').append(Time.of((this.time.getMinutes() + this.duration) % Time.MINS_PER_DAY)
+                    .toString(format));
+        }
+        sb.append("----").append(this.what);
+        if (this.until != null) {
+            sb.append(", until ").append(this.until);
+        }
+        if (this.count > 0) {
+            sb.append(", ").append(this.count).append(" times");
+        }
+        if (this.exceptions.length > 0) {
+            sb.append(", except ").append(getExceptions());
+        }
+        return sb.toString();
+    }
+
+}
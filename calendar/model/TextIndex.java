@@ -0,0 +1,240 @@
+package calendar.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * TextIndex is an inverted index over the descriptions of a store: for every word, the sorted ids of the
+ * appointments whose description has it. A search looks up each word of the query and intersects the lists,
+ * starting from the shortest, so it costs about the size of the rarest word's list instead of a scan of
+ * every day.
+ *
+ * Words are the runs of letters and digits in a description, in lower case. The words are split among
+ * segments, each with its own lock, like {@link IdIndex}.
+ */
+class TextIndex {
+
+    /**
+     * Number of segments, a power of two
+     */
+    private static final int SEGMENTS = 64;
+
+    /**
+     * The segments, chosen by the hash of the word
+     */
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+
+    /**
+     * The lists of some of the words
+     */
+    private static final class Segment {
+        final Map<String, Postings> words = new HashMap<>();
+    }
+
+    /**
+     * The ids of the appointments that have a word, sorted. Ids are given out in increasing order, so adding
+     * is almost always an append.
+     */
+    private static final class Postings {
+        long[] ids = new long[4];
+        int size;
+
+        void add(long id){
+            int at = this.size == 0 || this.ids[this.size - 1] < id ? this.size :
+                    Arrays.binarySearch(this.ids, 0, this.size, id);
+            if (at < 0) {
+                at = -at - 1;
+            } else if (at < this.size) {
+                return; //already there
+            }
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            System.arraycopy(this.ids, at, this.ids, at + 1, this.size - at);
+            this.ids[at] = id;
+            this.size++;
+        }
+
+        void remove(long id){
+            int at = Arrays.binarySearch(this.ids, 0, this.size, id);
+            if (at >= 0) {
+                System.arraycopy(this.ids, at + 1, this.ids, at, this.size - at - 1);
+                this.size--;
+            }
+        }
+    }
+
+    /**
+     * Create an empty index
+     */
+    TextIndex(){
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Split a description or a query into words
+     * @param text the text
+     * @return its distinct words, in lower case
+     */
+    static List<String> words(String text){
+        List<String> words = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (!words.contains(word)) {
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Index an appointment
+     * @param id its id
+     * @param text its description
+     */
+    void add(long id, String text){
+        for (String word : words(text)) {
+            Segment segment = segment(word);
+            synchronized (segment) {
+                segment.words.computeIfAbsent(word, w -> new Postings()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Take an appointment out of the index
+     * @param id its id
+     * @param text the description it was indexed with
+     */
+    void remove(long id, String text){
+        for (String word : words(text)) {
+            Segment segment = segment(word);
+            synchronized (segment) {
+                Postings postings = segment.words.get(word);
+                if (postings != null) {
+                    postings.remove(id);
+                    if (postings.size == 0) {
+                        segment.words.remove(word);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the appointments that have every word of a query. Only the shortest list is copied; the others are
+     * searched where they are.
+     * @param query the words to look for
+     * @return their ids, sorted; empty if the query has no words
+     */
+    long[] search(String query){
+        List<String> words = words(query);
+        if (words.isEmpty()) {
+            return new long[0];
+        }
+        int[] sizes = new int[words.size()];
+        int rarest = 0;
+        for (int w = 0; w < sizes.length; w++) {
+            sizes[w] = size(words.get(w));
+            if (sizes[w] == 0) {
+                return new long[0];
+            }
+            if (sizes[w] < sizes[rarest]) {
+                rarest = w;
+            }
+        }
+        long[] result;
+        Segment first = segment(words.get(rarest));
+        synchronized (first) {
+            Postings postings = first.words.get(words.get(rarest));
+            result = postings == null ? new long[0] : Arrays.copyOf(postings.ids, postings.size);
+        }
+        int size = result.length;
+        for (int w = 0; w < sizes.length && size > 0; w++) {
+            if (w == rarest) {
+                continue;
+            }
+            Segment segment = segment(words.get(w));
+            synchronized (segment) {
+                Postings postings = segment.words.get(words.get(w));
+                size = postings == null ? 0 : intersect(result, size, postings.ids, postings.size);
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Return how many appointments have a word
+     * @param word the word
+     * @return the length of its list
+     */
+    private int size(String word){
+        Segment segment = segment(word);
+        synchronized (segment) {
+            Postings postings = segment.words.get(word);
+            return postings == null ? 0 : postings.size;
+        }
+    }
+
+    /**
+     * Keep only the ids of a sorted list that are also in a longer sorted list, searching the longer one in
+     * steps that double, so a short list costs little against a long one.
+     * @param ids the shorter list, changed in place
+     * @param size how much of ids is in use
+     * @param other the longer list
+     * @param otherSize how much of other is in use
+     * @return how much of ids is in use afterwards
+     */
+    private static int intersect(long[] ids, int size, long[] other, int otherSize){
+        int kept = 0;
+        int from = 0;
+        for (int i = 0; i < size && from < otherSize; i++) {
+            long id = ids[i];
+            int step = 1;
+            int to = from;
+            while (to < otherSize && other[to] < id) {
+                from = to + 1;
+                to += step;
+                step <<= 1;
+            }
+            int at = Arrays.binarySearch(other, from, Math.min(to + 1, otherSize), id);
+            if (at >= 0) {
+                ids[kept++] = id;
+                from = at + 1;
+            } else {
+                from = -at - 1;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Pick the segment of a word
+     * @param word the word
+     * @return its segment
+     */
+    private Segment segment(String word){
+        int h = word.hashCode();
+        return this.segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+}
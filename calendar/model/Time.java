@@ -7,9 +7,7 @@ package calendar.model;
 
 import edu.rit.cs.Range;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.function.Function;
+import java.io.IOException;
 
 /**
  * A representation of the time of day
@@ -37,19 +35,6 @@ public class Time implements Comparable< Time > {
      */
     public static final int MINS_PER_HR = 60;
 
-    /**
-     * Will Time objects be output in 12-hour format?
-     */
-    private static boolean AM_PM = false;
-
-    /**
-     * Change how times are converted to strings.
-     * @param hour24 true =&gt; 24-hour format; false =&gt; 12-hour format.
-     */
-    public static void set24Hour( boolean hour24 ) {
-        AM_PM = !hour24;
-    }
-
     /**
      * The number of minutes since midnight
      */
@@ -63,6 +48,14 @@ public class Time implements Comparable< Time > {
         this.minutes = minutes;
     }
 
+    /**
+     * Get the time of day as a single number.
+     * @return the number of minutes since midnight
+     */
+    public int getMinutes() {
+        return this.minutes;
+    }
+
     /**
      * Create a Time object from a 24-hour description of the hour and
      * the minute.
@@ -83,7 +76,18 @@ public class Time implements Comparable< Time > {
      * @param meridiem choice of before or after noon.
      */
     public Time( int hour, int minute, Meridiem meridiem ) {
-        this(
+        this( toMinutes( hour, minute, meridiem ) );
+    }
+
+    /**
+     * Convert a 12-hour description of a time to minutes since midnight.
+     * @param hour number of hours (0-11) since midnight or noon, 12 means 0.
+     * @param minute number of minutes past the hour
+     * @param meridiem choice of before or after noon.
+     * @return the number of minutes since midnight
+     */
+    private static int toMinutes( int hour, int minute, Meridiem meridiem ) {
+        return (
                 hour == Time.HALF_DAY_HRS ?
                         meridiem == Meridiem.AM ?
                                 0 :
@@ -91,9 +95,45 @@ public class Time implements Comparable< Time > {
                         :
                                 meridiem == Meridiem.AM ?
                                         hour :
-                                        hour + Time.HALF_DAY_HRS,
-                minute
-        );
+                                        hour + Time.HALF_DAY_HRS
+        ) * MINS_PER_HR + minute;
+    }
+
+    /**
+     * Get the Time for a number of minutes since midnight. There are
+     * only 1440 times in a day, so every one of them is made once and
+     * shared; use this instead of the constructors so that big
+     * calendars do not hold thousands of equal Time objects.
+     * @param minutes number of minutes since midnight
+     * @return the shared Time, or a new one for a value outside a day
+     */
+    public static Time of( int minutes ) {
+        if ( minutes < 0 || minutes >= MINS_PER_DAY ) {
+            return new Time( minutes );
+        }
+        return CACHE[ minutes ];
+    }
+
+    /**
+     * Get the Time for a 24-hour description of the hour and the minute.
+     * @param hour number of hours (0-23) since midnight
+     * @param minute number of minutes past the hour
+     * @return the shared Time
+     */
+    public static Time of( int hour, int minute ) {
+        return of( hour * MINS_PER_HR + minute );
+    }
+
+    /**
+     * Get the Time for a 12-hour description of the hour and the
+     * minute, as {@link #Time(int, int, Meridiem)} reads it.
+     * @param hour number of hours (0-11) since midnight or noon, 12 means 0.
+     * @param minute number of minutes past the hour
+     * @param meridiem choice of before or after noon.
+     * @return the shared Time
+     */
+    public static Time of( int hour, int minute, Meridiem meridiem ) {
+        return of( toMinutes( hour, minute, meridiem ) );
     }
 
     /**
@@ -107,82 +147,146 @@ public class Time implements Comparable< Time > {
      * hours (pre-<code>:</code>) or minutes (post-<code>:</code>)
      * and <code>m</code> is the <em>meridiem</em> indicator:
      * <code>AM</code> or <code>PM</code>. (Lower case acceptable.)
-     * Absence of the meridiem indicator implies 24-hour time, but
-     * bounds checking is not done on the numbers.
+     * Absence of the meridiem indicator implies 24-hour time. Hours
+     * and minutes out of range are rejected.
      *
      * @param timeStr See format in description.
      * @return the Time instance created
      * @throws NumberFormatException if <code>timeStr</code> cannot be converted
      */
     public static Time fromString( String timeStr ) {
-        int hour, minute;
+        int minutes = parseMinutes( timeStr, 0, timeStr.length() );
+        if ( minutes < 0 ) throw new NumberFormatException( "Bad time " + timeStr );
+        return of( minutes );
+    }
+
+    /**
+     * Read a time in the formats accepted by {@link #fromString(String)}
+     * straight out of a range of characters, ignoring spaces around it.
+     * Nothing is allocated and nothing is thrown, so it is cheap to call
+     * on every line of a file or every command typed.
+     *
+     * @param text the characters
+     * @param from start of the range
+     * @param to end of the range, excluded
+     * @return the number of minutes since midnight, or -1 if the range
+     *         does not hold a time
+     */
+    public static int parseMinutes( CharSequence text, int from, int to ) {
+        int i = from;
+        while ( i < to && text.charAt( i ) == ' ' ) i++;
+        while ( to > i && text.charAt( to - 1 ) == ' ' ) to--;
 
-        String[] parts = timeStr.split( ":" );
-        if ( parts.length != 2 ) throw new NumberFormatException( timeStr );
-        hour = Integer.parseInt( parts[ 0 ] );
+        int hour = 0;
+        int start = i;
+        for ( ; i < to && i - start < 3 && isDigit( text.charAt( i ) ); i++ ) {
+            hour = hour * 10 + text.charAt( i ) - '0';
+        }
+        if ( i == start || i - start > 2 || i == to || text.charAt( i ) != ':' ) return -1;
 
-        String[] subParts = parts[ 1 ].split( " " );
-        if ( subParts.length > 2 ) throw new NumberFormatException( timeStr );
-        minute = Integer.parseInt( subParts[ 0 ] );
+        int minute = 0;
+        start = ++i;
+        for ( ; i < to && i - start < 3 && isDigit( text.charAt( i ) ); i++ ) {
+            minute = minute * 10 + text.charAt( i ) - '0';
+        }
+        if ( i == start || i - start > 2 ) return -1;
 
-        if ( subParts.length == 2 ) { // Meridiem indicator is present.
-            switch ( subParts[ 1 ] ) {
-                case "AM":
-                case "am":
+        if ( i < to ) { // Meridiem indicator is present.
+            if ( to - i != 3 || text.charAt( i ) != ' ' ) return -1;
+            char m = text.charAt( i + 2 );
+            if ( m != 'M' && m != 'm' ) return -1;
+            switch ( text.charAt( i + 1 ) ) {
+                case 'A':
+                case 'a':
                     if ( hour == Time.HALF_DAY_HRS ) {
                         hour = 0;
                     }
                     break;
-                case "PM":
-                case "pm":
+                case 'P':
+                case 'p':
                     if ( hour != Time.HALF_DAY_HRS ) {
                         hour += Time.HALF_DAY_HRS;
                     }
                     break;
                 default:
-                    throw new NumberFormatException( timeStr );
+                    return -1;
             }
         }
         if (
                 hour < 0 || hour >= Time.HRS_PER_DAY ||
                 minute < 0 || minute >= Time.MINS_PER_HR
         ) {
-            throw new NumberFormatException( "Bad time " + hour + ':' + minute );
+            return -1;
         }
-        return new Time( hour, minute );
+        return hour * MINS_PER_HR + minute;
     }
 
-    /** a lambda expression to deal with hours labeled "12" */
-    private static final Function< Integer, Integer > weird = h -> h == 0 ? 12 : h;
+    /**
+     * Is this character a decimal digit?
+     * @param c the character
+     * @return true for '0' through '9'
+     */
+    private static boolean isDigit( char c ) {
+        return c >= '0' && c <= '9';
+    }
 
     /**
-     * Get a string representation of the Time object.
+     * Number of minutes in a day, and so the number of distinct times
+     */
+    public static final int MINS_PER_DAY = HRS_PER_DAY * MINS_PER_HR;
+
+    /**
+     * The one shared Time for each minute of the day, see {@link #of(int)}
+     */
+    private static final Time[] CACHE = new Time[ MINS_PER_DAY ];
+
+    static {
+        for ( int m = 0; m < MINS_PER_DAY; ++m ) {
+            CACHE[ m ] = new Time( m );
+        }
+    }
+
+    /**
+     * Get a string representation of the Time object, always in the
+     * canonical 24-hour format. To show a time some other way, use
+     * {@link #toString(TimeFormat)}.
      * @return a string in a format compatible with
      *         {@link Calendar#fromFile(String)}
      */
     @Override
     public String toString() {
-        String suffix = "";
-        StringWriter sw = new StringWriter();
-        PrintWriter buf = new PrintWriter( sw );
-        int hour = this.minutes / MINS_PER_HR;
-        int minute = this.minutes % MINS_PER_HR;
-        if ( AM_PM ) {
-            if ( hour < HALF_DAY_HRS ) {
-                buf.printf( "%02d:%02d", weird.apply( hour ), minute );
-                suffix = " AM";
-            }
-            else {
-                buf.printf( "%02d:%02d",
-                            weird.apply( hour - HALF_DAY_HRS ), minute );
-                suffix = " PM";
-            }
-        }
-        else {
-            buf.printf( "%02d:%02d", hour, minute );
-        }
-        buf.flush();
-        return sw + suffix;
+        return TimeFormat.CANONICAL.format( this.minutes );
+    }
+
+    /**
+     * Get a string representation of the Time object in a given format.
+     * @param format how to write the time
+     * @return the formatted time
+     */
+    public String toString( TimeFormat format ) {
+        return format.format( this.minutes );
+    }
+
+    /**
+     * Append this time, formatted as by {@link #toString()}, to any
+     * character output without building a string.
+     * @param out where the characters go
+     * @throws IOException if the output fails
+     */
+    public void formatTo( Appendable out ) throws IOException {
+        TimeFormat.CANONICAL.formatTo( this, out );
+    }
+
+    /**
+     * Copy this time, formatted as by {@link #toString()}, into a byte
+     * buffer as ASCII.
+     * @param buf the buffer, with room for the time (5 bytes for a
+     *            time of day)
+     * @param at where to start writing
+     * @return the position after the last byte written
+     */
+    public int formatTo( byte[] buf, int at ) {
+        return TimeFormat.CANONICAL.formatTo( this, buf, at );
     }
 
     /**
@@ -195,20 +299,39 @@ public class Time implements Comparable< Time > {
         return this.minutes - other.minutes;
     }
 
+    /**
+     * Two Times are equal if they are the same minute of the day.
+     * @param other the object to compare to
+     * @return true if other is a Time with the same number of minutes
+     */
+    @Override
+    public boolean equals( Object other ) {
+        return other instanceof Time && ( (Time)other ).minutes == this.minutes;
+    }
+
+    /**
+     * Hash a Time by its minute of the day, consistent with
+     * {@link #equals(Object)}.
+     * @return the number of minutes since midnight
+     */
+    @Override
+    public int hashCode() {
+        return this.minutes;
+    }
+
     public static void main( String[] args ) {
-        for ( boolean howShow: new boolean[]{ false, true } ) {
-            Time.set24Hour( howShow );
+        for ( TimeFormat format: new TimeFormat[]{ TimeFormat.TWELVE_HOUR, TimeFormat.CANONICAL } ) {
             for ( Meridiem mer : Meridiem.values() ) {
                 for ( int h : Range.of( 0, HALF_DAY_HRS, 2 ) ) {
                     for ( int m : Range.of( 0, MINS_PER_HR, 10 ) ) {
-                        System.out.println( new Time( h, m, mer ) );
+                        System.out.println( Time.of( h, m, mer ).toString( format ) );
                     }
                 }
             }
             System.out.println();
             for ( int h : Range.of( 0, HALF_DAY_HRS * 2, 2 ) ) {
                 for ( int m : Range.of( 0, MINS_PER_HR, 10 ) ) {
-                    System.out.println( new Time( h, m ) );
+                    System.out.println( Time.of( h, m ).toString( format ) );
                 }
             }
             System.out.println();
@@ -0,0 +1,211 @@
+package calendar.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * TimeFormat says how times are written out: on a 12 or 24-hour clock, and whether the hour is padded to two
+ * digits. A TimeFormat never changes, so each session, view or render can hold its own without affecting any
+ * other, and they can all format at once from different threads.
+ *
+ * Every time of day is formatted once per format when the class loads, so formatting is a table lookup.
+ * Files always use {@link #CANONICAL}, whatever format a user interface shows.
+ */
+public final class TimeFormat {
+
+    /**
+     * The 24-hour, padded format ("09:05") that calendar files are written in and {@link Time#toString()} gives
+     */
+    public static final TimeFormat CANONICAL;
+
+    /**
+     * The 12-hour, padded format ("09:05 PM")
+     */
+    public static final TimeFormat TWELVE_HOUR;
+
+    /**
+     * The four formats, indexed by {@link #index(boolean, boolean)}
+     */
+    private static final TimeFormat[] FORMATS = new TimeFormat[4];
+
+    static {
+        for (int i = 0; i < FORMATS.length; i++) {
+            FORMATS[i] = new TimeFormat((i & 1) != 0, (i & 2) != 0);
+        }
+        CANONICAL = of(false, true);
+        TWELVE_HOUR = of(true, true);
+    }
+
+    /**
+     * Whether times are on a 12-hour clock with AM or PM
+     */
+    private final boolean twelveHour;
+
+    /**
+     * Whether hours below 10 get a leading zero
+     */
+    private final boolean padded;
+
+    /**
+     * Every time of day in this format, by minute
+     */
+    private final String[] strings = new String[Time.MINS_PER_DAY];
+
+    /**
+     * The same strings as ASCII bytes, for writing times into byte buffers
+     */
+    private final byte[][] bytes = new byte[Time.MINS_PER_DAY][];
+
+
+    /**
+     * Build a format and its tables
+     * @param twelveHour true for a 12-hour clock
+     * @param padded true to pad hours to two digits
+     */
+    private TimeFormat(boolean twelveHour, boolean padded){
+        this.twelveHour = twelveHour;
+        this.padded = padded;
+        for (int m = 0; m < Time.MINS_PER_DAY; m++) {
+            this.strings[m] = build(m);
+            this.bytes[m] = this.strings[m].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Get a format
+     * @param twelveHour true for a 12-hour clock with AM and PM, false for a 24-hour clock
+     * @param padded true to pad hours to two digits
+     * @return the shared format
+     */
+    public static TimeFormat of(boolean twelveHour, boolean padded){
+        return FORMATS[index(twelveHour, padded)];
+    }
+
+    /**
+     * Position of a format in {@link #FORMATS}
+     * @param twelveHour true for a 12-hour clock
+     * @param padded true to pad hours
+     * @return the index
+     */
+    private static int index(boolean twelveHour, boolean padded){
+        return (twelveHour ? 1 : 0) | (padded ? 2 : 0);
+    }
+
+    /**
+     * Tell whether this format uses a 12-hour clock
+     * @return true for 12-hour, false for 24-hour
+     */
+    public boolean isTwelveHour(){
+        return this.twelveHour;
+    }
+
+    /**
+     * Tell whether this format pads hours to two digits
+     * @return true if padded
+     */
+    public boolean isPadded(){
+        return this.padded;
+    }
+
+    /**
+     * Get the format that is like this one but with the given clock
+     * @param twelveHour true for a 12-hour clock
+     * @return the format
+     */
+    public TimeFormat withTwelveHour(boolean twelveHour){
+        return of(twelveHour, this.padded);
+    }
+
+    /**
+     * Get the format that is like this one but with the given padding
+     * @param padded true to pad hours
+     * @return the format
+     */
+    public TimeFormat withPadding(boolean padded){
+        return of(this.twelveHour, padded);
+    }
+
+    /**
+     * Format a time
+     * @param time the time
+     * @return the time in this format
+     */
+    public String format(Time time){
+        return format(time.getMinutes());
+    }
+
+    /**
+     * Format a number of minutes since midnight
+     * @param minutes the minutes
+     * @return the time in this format
+     */
+    public String format(int minutes){
+        if (minutes < 0 || minutes >= Time.MINS_PER_DAY) {
+            return build(minutes);
+        }
+        return this.strings[minutes];
+    }
+
+    /**
+     * Append a time in this format to any character output without building a string.
+     * @param time the time
+     * @param out where the characters go
+     * @throws IOException if the output fails
+     */
+    public void formatTo(Time time, Appendable out) throws IOException {
+        out.append(format(time.getMinutes()));
+    }
+
+    /**
+     * Copy a time in this format into a byte buffer as ASCII.
+     * @param time the time
+     * @param buf the buffer, with room for the time (8 bytes at most for a time of day)
+     * @param at where to start writing
+     * @return the position after the last byte written
+     */
+    public int formatTo(Time time, byte[] buf, int at){
+        int minutes = time.getMinutes();
+        byte[] text = minutes < 0 || minutes >= Time.MINS_PER_DAY ?
+                build(minutes).getBytes(StandardCharsets.US_ASCII) : this.bytes[minutes];
+        System.arraycopy(text, 0, buf, at, text.length);
+        return at + text.length;
+    }
+
+    /**
+     * Format a number of minutes the slow way. Only used to fill the tables and for times outside of a day.
+     * @param minutes the minutes
+     * @return the time in this format
+     */
+    private String build(int minutes){
+        int hour = minutes / Time.MINS_PER_HR;
+        int minute = minutes % Time.MINS_PER_HR;
+        String suffix = "";
+        if (this.twelveHour) {
+            suffix = hour < Time.HALF_DAY_HRS ? " AM" : " PM";
+            hour %= Time.HALF_DAY_HRS;
+            if (hour == 0) {
+                hour = Time.HALF_DAY_HRS; //hours labeled "12"
+            }
+        }
+        StringBuilder sb = new StringBuilder(8);
+        if (this.padded && hour >= 0 && hour < 10) {
+            sb.append('0');
+        }
+        sb.append(hour).append(':');
+        if (minute >= 0 && minute < 10) {
+            sb.append('0');
+        }
+        return sb.append(minute).append(suffix).toString();
+    }
+
+    /**
+     * Describe the format
+     * @return a short description, like "12-hour padded"
+     */
+    @Override
+    public String toString(){
+        return (this.twelveHour ? "12-hour" : "24-hour") + (this.padded ? " padded" : "");
+    }
+
+}
@@ -0,0 +1,342 @@
+package calendar.view_controller.fx;
+
+import javafx.event.EventHandler;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.TextStyle;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * A month, or several months side by side, painted on a single Canvas instead of one Button per day. Each
+ * month is a title, a row of weekday names and six weeks of day cells starting on Monday. A day with
+ * appointments shows its count and a "!".
+ *
+ * Changing a count only marks its cell dirty; {@link #repaint()} then paints just the dirty cells, so a year
+ * of cells costs no more to update than a single day. Clicks are turned into dates with arithmetic on the
+ * cell layout.
+ */
+class CalendarGrid extends Canvas {
+
+    /**
+     * Days in a week, the columns of a month
+     */
+    private static final int COLUMNS = 7;
+
+    /**
+     * Weeks a month can touch, the rows of a month
+     */
+    private static final int WEEKS = 6;
+
+    /**
+     * Height of the month title
+     */
+    private static final double TITLE_HEIGHT = 24;
+
+    /**
+     * Height of the row of weekday names
+     */
+    private static final double HEADER_HEIGHT = 18;
+
+    /**
+     * Space around the text in a cell
+     */
+    private static final double PADDING = 4;
+
+    /**
+     * Background of a day with appointments
+     */
+    private static final Color BUSY = Color.LIGHTYELLOW;
+
+    /**
+     * The first month shown
+     */
+    private final YearMonth first;
+
+    /**
+     * How many months are shown
+     */
+    private final int months;
+
+    /**
+     * How many months are side by side before wrapping to the next row
+     */
+    private final int monthsPerRow;
+
+    /**
+     * Width of a day cell
+     */
+    private final double cellWidth;
+
+    /**
+     * Height of a day cell
+     */
+    private final double cellHeight;
+
+    /**
+     * The first day shown, index 0 of counts
+     */
+    private final LocalDate firstDay;
+
+    /**
+     * Number of appointments on each day shown, indexed by days since firstDay
+     */
+    private final int[] counts;
+
+    /**
+     * Cells whose count changed since they were last painted, indexed like counts
+     */
+    private final BitSet dirty = new BitSet();
+
+    /**
+     * Told about the date of each clicked cell, or null
+     */
+    private Consumer<LocalDate> onDateClicked;
+
+
+    /**
+     * Create a grid. Nothing is painted until {@link #setCounts(int[])} is called.
+     *
+     * @param first the first month shown
+     * @param months how many months to show, at least 1
+     * @param monthsPerRow how many months go side by side, at least 1
+     * @param cellWidth width of a day cell
+     * @param cellHeight height of a day cell
+     */
+    CalendarGrid(YearMonth first, int months, int monthsPerRow, double cellWidth, double cellHeight) {
+        super(Math.min(months, monthsPerRow) * COLUMNS * cellWidth,
+                ((months + monthsPerRow - 1) / monthsPerRow) * (TITLE_HEIGHT + HEADER_HEIGHT + WEEKS * cellHeight));
+        this.first = first;
+        this.months = months;
+        this.monthsPerRow = monthsPerRow;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.firstDay = first.atDay(1);
+        this.counts = new int[(int) (lastDay().toEpochDay() - this.firstDay.toEpochDay() + 1)];
+
+        setOnMouseClicked(new EventHandler<MouseEvent>() {
+            @Override
+            public void handle(MouseEvent mouseEvent) {
+                LocalDate date = dateAt(mouseEvent.getX(), mouseEvent.getY());
+                if (date != null && onDateClicked != null) {
+                    onDateClicked.accept(date);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the first day shown
+     *
+     * @return the first day of the first month
+     */
+    LocalDate firstDay() {
+        return this.firstDay;
+    }
+
+    /**
+     * Return the last day shown
+     *
+     * @return the last day of the last month
+     */
+    LocalDate lastDay() {
+        return this.first.plusMonths(this.months - 1).atEndOfMonth();
+    }
+
+    /**
+     * Tell whether a date has a cell in this grid
+     *
+     * @param date the date
+     * @return true if it is in one of the months shown
+     */
+    boolean contains(LocalDate date) {
+        return !date.isBefore(this.firstDay) && !date.isAfter(lastDay());
+    }
+
+    /**
+     * Set what to do when a day is clicked
+     *
+     * @param onDateClicked given the date of the clicked cell
+     */
+    void setOnDateClicked(Consumer<LocalDate> onDateClicked) {
+        this.onDateClicked = onDateClicked;
+    }
+
+    /**
+     * Set the count of every day and paint the whole grid
+     *
+     * @param counts the number of appointments of each day from {@link #firstDay()} to {@link #lastDay()}
+     */
+    void setCounts(int[] counts) {
+        System.arraycopy(counts, 0, this.counts, 0, this.counts.length);
+        paintAll();
+    }
+
+    /**
+     * Change the count of one day. The cell is only painted again by the next {@link #repaint()}.
+     *
+     * @param date the day, ignored if it is not shown
+     * @param count the number of appointments on it
+     */
+    void setCount(LocalDate date, int count) {
+        if (!contains(date)) {
+            return;
+        }
+        int index = (int) (date.toEpochDay() - this.firstDay.toEpochDay());
+        if (this.counts[index] != count) {
+            this.counts[index] = count;
+            this.dirty.set(index);
+        }
+    }
+
+    /**
+     * Paint the cells whose count changed since they were last painted
+     */
+    void repaint() {
+        GraphicsContext gc = getGraphicsContext2D();
+        for (int i = this.dirty.nextSetBit(0); i >= 0; i = this.dirty.nextSetBit(i + 1)) {
+            paintCell(gc, this.firstDay.plusDays(i), this.counts[i]);
+        }
+        this.dirty.clear();
+    }
+
+    /**
+     * Paint every month: titles, weekday names and all the cells
+     */
+    private void paintAll() {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.clearRect(0, 0, getWidth(), getHeight());
+        gc.setTextBaseline(VPos.CENTER);
+        for (int m = 0; m < this.months; m++) {
+            YearMonth month = this.first.plusMonths(m);
+            double x = panelX(m);
+            double y = panelY(m);
+
+            gc.setFill(Color.BLACK);
+            gc.setTextAlign(TextAlignment.CENTER);
+            gc.fillText(month.getMonth().getDisplayName(TextStyle.FULL, Locale.getDefault()) + " " +
+                    month.getYear(), x + COLUMNS * this.cellWidth / 2, y + TITLE_HEIGHT / 2);
+            gc.setFill(Color.DIMGRAY);
+            for (int d = 0; d < COLUMNS; d++) {
+                gc.fillText(DayOfWeek.of(d + 1).getDisplayName(TextStyle.SHORT, Locale.getDefault()),
+                        x + (d + 0.5) * this.cellWidth, y + TITLE_HEIGHT + HEADER_HEIGHT / 2);
+            }
+        }
+        for (int i = 0; i < this.counts.length; i++) {
+            paintCell(gc, this.firstDay.plusDays(i), this.counts[i]);
+        }
+        this.dirty.clear();
+    }
+
+    /**
+     * Paint one day cell
+     *
+     * @param gc where to paint
+     * @param date the day
+     * @param count the number of appointments on it
+     */
+    private void paintCell(GraphicsContext gc, LocalDate date, int count) {
+        int m = monthIndex(YearMonth.from(date));
+        int cell = offset(YearMonth.from(date)) + date.getDayOfMonth() - 1;
+        double x = panelX(m) + (cell % COLUMNS) * this.cellWidth;
+        double y = panelY(m) + TITLE_HEIGHT + HEADER_HEIGHT + (cell / COLUMNS) * this.cellHeight;
+
+        gc.setFill(count > 0 ? BUSY : Color.WHITE);
+        gc.fillRect(x, y, this.cellWidth, this.cellHeight);
+        gc.setStroke(Color.LIGHTGRAY);
+        gc.strokeRect(x, y, this.cellWidth, this.cellHeight);
+
+        gc.setFill(Color.BLACK);
+        gc.setTextBaseline(VPos.TOP);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.fillText("" + date.getDayOfMonth(), x + PADDING, y + PADDING);
+        if (count > 0) {
+            gc.setFill(Color.DARKRED);
+            gc.setTextBaseline(VPos.BOTTOM);
+            gc.setTextAlign(TextAlignment.RIGHT);
+            gc.fillText(count + " !", x + this.cellWidth - PADDING, y + this.cellHeight - PADDING);
+        }
+    }
+
+    /**
+     * Find the day under a point of the canvas
+     *
+     * @param x horizontal position
+     * @param y vertical position
+     * @return the day, or null if the point is not on a day cell
+     */
+    LocalDate dateAt(double x, double y) {
+        if (x < 0 || y < 0) {
+            return null;
+        }
+        double panelWidth = COLUMNS * this.cellWidth;
+        double panelHeight = TITLE_HEIGHT + HEADER_HEIGHT + WEEKS * this.cellHeight;
+        int column = (int) (x / panelWidth);
+        int row = (int) (y / panelHeight);
+        if (column >= this.monthsPerRow) {
+            return null;
+        }
+        int m = row * this.monthsPerRow + column;
+        if (m >= this.months) {
+            return null;
+        }
+        double cellY = y - row * panelHeight - TITLE_HEIGHT - HEADER_HEIGHT;
+        if (cellY < 0) {
+            return null;
+        }
+        int cell = (int) (cellY / this.cellHeight) * COLUMNS + (int) ((x - column * panelWidth) / this.cellWidth);
+        YearMonth month = this.first.plusMonths(m);
+        int day = cell - offset(month) + 1;
+        return day >= 1 && day <= month.lengthOfMonth() ? month.atDay(day) : null;
+    }
+
+    /**
+     * Position of a month among the months shown
+     *
+     * @param month the month
+     * @return 0 for the first month
+     */
+    private int monthIndex(YearMonth month) {
+        return (int) (month.getYear() * 12L + month.getMonthValue() - this.first.getYear() * 12L -
+                this.first.getMonthValue());
+    }
+
+    /**
+     * Number of empty cells before the first day of a month, the days from Monday to the 1st
+     *
+     * @param month the month
+     * @return 0 to 6
+     */
+    private static int offset(YearMonth month) {
+        return month.atDay(1).getDayOfWeek().getValue() - 1;
+    }
+
+    /**
+     * Left edge of a month
+     *
+     * @param m position of the month
+     * @return the x of its first column
+     */
+    private double panelX(int m) {
+        return (m % this.monthsPerRow) * COLUMNS * this.cellWidth;
+    }
+
+    /**
+     * Top edge of a month
+     *
+     * @param m position of the month
+     * @return the y of its title
+     */
+    private double panelY(int m) {
+        return (m / this.monthsPerRow) * (TITLE_HEIGHT + HEADER_HEIGHT + WEEKS * this.cellHeight);
+    }
+
+}
@@ -2,22 +2,33 @@ package calendar.view_controller.fx;
 
 import calendar.model.Appointment;
 import calendar.model.Calendar;
+import calendar.model.CalendarChange;
+import calendar.model.CalendarDelta;
+import calendar.model.Time;
+import calendar.model.TimeFormat;
 import edu.rit.cs.Observer;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
-import javax.security.auth.Subject;
+import javafx.stage.WindowEvent;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Map;
 
 /**
  * The Bread and Butter for Calendar object which uses JavaFX for GUI representation.
@@ -27,18 +38,20 @@ import java.util.List;
  * @author Abhishek Yadav
  */
 
-public class KalGUI extends Application implements Observer<Subject> {
+public class KalGUI extends Application implements Observer<Calendar> {
+    /**
+     * The argument that turns on journaling of a calendar read from a file
+     */
+    public static final String JOURNAL = "--journal";
     private Calendar model;
     /**
-     * A Vertical box appointvBox is created to stack appointments one on top of the other.
+     * How this window shows the times of appointments
      */
-    private VBox appointmentvBox;
-    private VBox appointmentbox;
+    private TimeFormat format = TimeFormat.CANONICAL;
     /**
      * This boxes are used for setting the location of add appointment button and
      * remove appointment button.
      */
-    private HBox hbox1;
     private VBox vbox3;
     /**
      * buttonPane is used to center the Save Button
@@ -51,50 +64,293 @@ public class KalGUI extends Application implements Observer<Subject> {
     private BorderPane borderPane;
 
     /**
-     * the BorderPane on which the appointmentvBox is added
+     * The days of the month, painted on one canvas
+     */
+    private CalendarGrid grid;
+
+    /**
+     * The appointments shown by each open day dialog, kept in step with the model by {@link #update}
      */
-    private BorderPane borderPane1;
+    private final Map<Integer, ObservableList<Appointment>> openDays = new HashMap<>();
 
     /**
-     * The update is called when the observer notifies it. The notifying is done in the model.
+     * The open day dialogs, so a day is only ever shown in one
+     */
+    private final Map<Integer, Stage> dialogs = new HashMap<>();
+
+    /**
+     * The update is called when the observer notifies it. The notifying is done in the model. Only the
+     * changes in the delta are applied: open day lists get the added and removed rows, and only the cells of
+     * the changed days are painted again.
      *
      * @param subject object that informs this object about something.
      * @param something object that represents new information about subject
      *
      */
     @Override
-    public void update(Subject subject, Object something) {
-        HashMap<Button, Appointment> map = (HashMap<Button, Appointment>) something;
-
-        for (Button btn : map.keySet()) {
+    public void update(Calendar subject, Object something) {
+        if (!(something instanceof CalendarDelta)) {
+            return;
+        }
+        CalendarDelta delta = (CalendarDelta) something;
+        if (Platform.isFxApplicationThread()) {
+            apply(delta);
+        } else {
+            Platform.runLater(() -> apply(delta));
+        }
+    }
 
-            if (!map.get(btn).remove()) {
-                for (Appointment appointment1 : model.appointmentsOn(Integer.parseInt(btn.getText()
-                        .split(" ")[0]))) {
-                    appointmentvBox.getChildren().add(new Label(appointment1.toString()));
-                    btn.setText(btn.getText().split(" ")[0] + " !");
+    /**
+     * Apply a delta to the day grid and the open day lists. Runs on the JavaFX thread.
+     *
+     * @param delta what changed in the model
+     */
+    private void apply(CalendarDelta delta) {
+        YearMonth month = model.getMonth();
+        for (LocalDate date : delta.dates()) {
+            grid.setCount(date, model.appointmentsOn(date).size());
+        }
+        grid.repaint();
+        for (CalendarChange change : delta.changes()) {
+            if (change.getKind() != CalendarChange.Kind.ADDED) {
+                Appointment gone = change.getKind() == CalendarChange.Kind.REMOVED ? change.getAppointment() :
+                        change.getPrevious();
+                ObservableList<Appointment> shown = shownOn(change.getPreviousDate(), month);
+                if (shown != null) {
+                    shown.removeIf(appointment -> appointment.getId() == gone.getId());
                 }
+            }
+            if (change.getKind() != CalendarChange.Kind.REMOVED) {
+                ObservableList<Appointment> shown = shownOn(change.getDate(), month);
+                if (shown != null) {
+                    insert(shown, change.getAppointment());
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the list of an open day dialog
+     *
+     * @param date the day
+     * @param month the month this window shows
+     * @return the list shown for that day, or null if it is not open
+     */
+    private ObservableList<Appointment> shownOn(LocalDate date, YearMonth month) {
+        return YearMonth.from(date).equals(month) ? openDays.get(date.getDayOfMonth()) : null;
+    }
 
+    /**
+     * Put an appointment into a day list after the ones already at its time, the way the model orders them.
+     *
+     * @param shown the list of a day, sorted by time
+     * @param appointment the appointment to add
+     */
+    private static void insert(ObservableList<Appointment> shown, Appointment appointment) {
+        int minute = appointment.getTime().getMinutes();
+        int low = 0;
+        int high = shown.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (shown.get(mid).getTime().getMinutes() <= minute) {
+                low = mid + 1;
             } else {
-                /**
-                 * The if and else if logics are used to figure out whether or not the button would have a "!"
-                 * attached to them
-                 */
-                ArrayList<Appointment> appointments = model.appointmentsOn(Integer.parseInt(btn.getText()
-                        .split(" ")[0]));
+                high = mid;
+            }
+        }
+        shown.add(low, appointment);
+    }
 
-                if (model.appointmentsOn(Integer.parseInt(btn.getText().split(" ")[0])).size() == 0) {
-                    btn.setText(btn.getText().split(" ")[0]);
+    /**
+     * Make a list show each appointment the way this window shows times
+     *
+     * @param list the list
+     */
+    private void showWithTimes(ListView<Appointment> list) {
+        list.setCellFactory(view -> new ListCell<Appointment>() {
+            @Override
+            protected void updateItem(Appointment appointment, boolean empty) {
+                super.updateItem(appointment, empty);
+                setText(empty || appointment == null ? null : appointment.toString(format));
+            }
+        });
+    }
 
-                } else if (model.appointmentsOn(Integer.parseInt(btn.getText().split(" ")[0])).size() > 0) {
-                    btn.setText(btn.getText().split(" ")[0] + " !");
-                }
-                this.appointmentvBox.getChildren().clear();
-                for (Appointment appointment : appointments) {
-                    appointmentvBox.getChildren().add(new Label(appointment.toString()));
+    /**
+     * Show the appointments of the month whose descriptions have all the given words. Clicking one opens its
+     * day.
+     *
+     * @param words what to look for
+     */
+    private void showFound(String words) {
+        ListView<Appointment> found = new ListView<>(FXCollections.observableArrayList(model.find(words)));
+        showWithTimes(found);
+        found.setPlaceholder(new Label("Nothing found"));
+        found.setOnMouseClicked(new EventHandler<MouseEvent>() {
+            @Override
+            public void handle(MouseEvent mouseEvent) {
+                Appointment picked = found.getSelectionModel().getSelectedItem();
+                if (picked != null) {
+                    showDay(picked.getDate());
                 }
             }
+        });
+
+        Stage results = new Stage();
+        results.setTitle("Found \"" + words.trim() + "\"");
+        results.setScene(new Scene(new BorderPane(found), 400, 300));
+        results.show();
+    }
+
+    /**
+     * Open the dialog of a day, or bring it to the front if it is already open. The appointments are shown in
+     * a ListView, which only builds cells for the rows that are visible.
+     *
+     * @param date the day of the month
+     */
+    private void showDay(int date) {
+        Stage open = dialogs.get(date);
+        if (open != null) {
+            open.toFront();
+            return;
         }
+
+        final Stage dialog = new Stage();
+        dialog.setTitle("Appointments for date " + date);
+        Button addApp = new Button("Add Appointment");
+        Button removeApp = new Button("Remove appointment");
+
+        ObservableList<Appointment> shown = FXCollections.observableArrayList(model.appointmentsOn(date));
+        ListView<Appointment> appointmentList = new ListView<>(shown);
+        showWithTimes(appointmentList);
+        openDays.put(date, shown);
+        dialogs.put(date, dialog);
+        dialog.setOnHidden(new EventHandler<WindowEvent>() {
+            @Override
+            public void handle(WindowEvent windowEvent) {
+                openDays.remove(date);
+                dialogs.remove(date);
+            }
+        });
+
+        BorderPane borderPane1 = new BorderPane();
+        HBox hbox1 = new HBox(20);
+
+        /**
+         * Remove Appointment Buttons
+         */
+        removeApp.setOnAction(new EventHandler<ActionEvent>() {
+
+
+            @Override
+            public void handle(ActionEvent actionEvent) {
+
+                //A picked row is removed on its own, by its id; a repeating one is skipped on this date
+                Appointment selected = appointmentList.getSelectionModel().getSelectedItem();
+                if (selected != null) {
+                    if (selected.isRecurring()) {
+                        model.skip(selected.getId(), model.getMonth().atDay(date));
+                    } else {
+                        model.remove(selected.getId());
+                    }
+                    return;
+                }
+
+                Label timelabel = new Label("Time");
+                HBox timelabel_time = new HBox();
+                timelabel_time.setSpacing(3);
+                TextField time = new TextField();
+                timelabel_time.getChildren().addAll(timelabel,time);
+                final Stage removeap = new Stage();
+                removeap.setTitle("Remove Appointment");
+                vbox3 = new VBox();
+                removeap.setScene(new Scene(vbox3, 250, 100));
+                removeap.show();
+                Button confirm_delete = new Button("Confirm");
+                vbox3.getChildren().addAll(timelabel_time, confirm_delete);
+                confirm_delete.setOnAction(new EventHandler<ActionEvent>() {
+
+                    @Override
+                    public void handle(ActionEvent actionEvent) {
+                        model.removeAt(date, Time.fromString(time.getText()));
+                    }
+                });
+
+            }
+        });
+
+        /**
+         * Add Appointment button
+         */
+
+        addApp.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+
+                final Stage query = new Stage();
+                VBox vbox2 = new VBox();
+                HBox time_textfield = new HBox();
+                Label time_label = new Label("Time");
+                Label what_label = new Label("What");
+                TextField time = new TextField();
+                TextField what = new TextField();
+                Label minutes_label = new Label("Minutes");
+                TextField minutes = new TextField();
+                Label conflicts = new Label();
+                Button confirm = new Button("Confirm");
+                time_textfield.getChildren().addAll(time_label,time);
+                HBox what_textfield = new HBox();
+                what_textfield.getChildren().addAll(what_label,what);
+                HBox minutes_textfield = new HBox();
+                minutes_textfield.getChildren().addAll(minutes_label,minutes);
+                vbox2.getChildren().add(what_textfield);
+                vbox2.getChildren().addAll(time_textfield);
+                vbox2.getChildren().add(minutes_textfield);
+                vbox2.getChildren().add(confirm);
+                vbox2.getChildren().add(conflicts);
+                vbox2.setSpacing(2);
+                query.setTitle("Add Appointment");
+                query.setScene(new Scene(vbox2, 250, 180));
+                query.show();
+
+
+                /**
+                 * CONFIRM appointment button
+                 */
+                confirm.setOnAction(new EventHandler<ActionEvent>() {
+                    @Override
+                    public void handle(ActionEvent actionEvent) {
+                        Appointment appointment;
+                        try {
+                            int length = minutes.getText().isBlank() ? 0 : Integer.parseInt(minutes.getText().trim());
+                            appointment = new Appointment(date, Time.fromString(time.getText()), what.getText(),
+                                    length);
+                        } catch (NumberFormatException e) {
+                            conflicts.setText("Time or minutes is not a number");
+                            return;
+                        } catch (IllegalArgumentException e) {
+                            conflicts.setText(e.getMessage());
+                            return;
+                        }
+                        StringBuilder overlaps = new StringBuilder();
+                        for (Appointment other : model.conflictsWith(appointment)) {
+                            overlaps.append("Overlaps ").append(other.toString(format)).append('\n');
+                        }
+                        conflicts.setText(overlaps.toString());
+                        model.add(appointment);
+                    }
+                });
+
+            }
+        });
+
+        hbox1.getChildren().add(addApp);
+        hbox1.getChildren().add(removeApp);
+        borderPane1.setBottom(hbox1);
+        borderPane1.setCenter(appointmentList);
+
+        dialog.setScene(new Scene(borderPane1, 400, 600));
+        dialog.show();
     }
 
     /**
@@ -138,172 +394,31 @@ public class KalGUI extends Application implements Observer<Subject> {
             }
         });
 
-        GridPane gridPane = new GridPane();
-        borderPane.setCenter(gridPane);
+        //One canvas for the whole month, asking the model for every day's count at once
+        YearMonth month = model.getMonth();
+        grid = new CalendarGrid(month, 1, 1, 70, 60);
+        grid.setCounts(model.appointmentCounts(grid.firstDay(), grid.lastDay()));
+        grid.setOnDateClicked(date -> {
+            if (YearMonth.from(date).equals(month)) {
+                showDay(date.getDayOfMonth());
+            }
+        });
+        borderPane.setCenter(grid);
         borderPane.setBottom(buttonPane);
+        model.addObserver(this);
 
-
-        //get the monthszie from init or main
-        int monthsize = model.getMonthsize();
-
-
-        //Round up the row number since the no. of rows can't be a double.
-        Integer rows =(int) Math.round(Math.ceil(monthsize / 7));
-        int day = 1;
-
-        //Use a double for loop to put the buttons that represent the days in the month
-        for (int i = 0; i <= rows; i++) {
-            for (int j = 0; j < 7; j++) {
-
-                Button btn = new Button("" + day);
-                if (model.appointmentsOn(day).size() != 0) {
-                    btn.setText(btn.getText() + " !");
-
-                }
-                /**
-                 * The buttons that represent the Days
-                 */
-                btn.setOnAction(new EventHandler<ActionEvent>() {
-                    @Override
-                    public void handle(ActionEvent actionEvent) {
-
-                        final Stage dialog = new Stage();
-                        dialog.setTitle("Appointments for date "+btn.getText().split(" ")[0]);
-                        Button addApp = new Button("Add Appointment");
-                        Button removeApp = new Button("Remove appointment");
-
-
-                        VBox appoints = new VBox();
-
-                        borderPane1 = new BorderPane();
-                        appointmentbox = new VBox(20);
-                        hbox1 = new HBox(20);
-                        borderPane1.setBottom(hbox1);
-
-                        /**
-                         * Remove Appointment Buttons
-                         */
-                        removeApp.setOnAction(new EventHandler<ActionEvent>() {
-
-
-                            @Override
-                            public void handle(ActionEvent actionEvent) {
-
-                                Label timelabel = new Label("Time");
-                                HBox timelabel_time = new HBox();
-                                timelabel_time.setSpacing(3);
-                                TextField time = new TextField();
-                                timelabel_time.getChildren().addAll(timelabel,time);
-                                final Stage removeap = new Stage();
-                                removeap.setTitle("Remove Appointment");
-                                vbox3 = new VBox();
-                                removeap.setScene(new Scene(vbox3, 250, 100));
-                                removeap.show();
-                                Button confirm_delete = new Button("Confirm");
-                                vbox3.getChildren().addAll(timelabel_time, confirm_delete);
-                                confirm_delete.setOnAction(new EventHandler<ActionEvent>() {
-
-                                    @Override
-                                    public void handle(ActionEvent actionEvent) {
-                                        appointmentvBox = new VBox();
-                                        Appointment Appointment_to_remove = Appointment.fromString(
-                                                btn.getText().split(" ")[0] + "," +
-                                                time.getText() + "," + "what");
-                                        model.remove(Appointment_to_remove);
-                                        Appointment_to_remove.setRemoved(true);
-                                        HashMap<Button, Appointment> object = new HashMap<>();
-                                        object.put(btn, Appointment_to_remove);
-                                        update(new Subject(), object);
-                                        borderPane1.setTop(appointmentvBox);
-
-
-                                    }
-                                });
-
-                            }
-                        });
-
-                        /**
-                         * Add Appointment button
-                         */
-
-                        addApp.setOnAction(new EventHandler<ActionEvent>() {
-                            @Override
-                            public void handle(ActionEvent actionEvent) {
-
-                                final Stage query = new Stage();
-                                VBox vbox2 = new VBox();
-                                HBox time_textfield = new HBox();
-                                Label time_label = new Label("Time");
-                                Label what_label = new Label("What");
-                                TextField time = new TextField();
-                                TextField what = new TextField();
-                                Button confirm = new Button("Confirm");
-                                time_textfield.getChildren().addAll(time_label,time);
-                                HBox what_textfield = new HBox();
-                                what_textfield.getChildren().addAll(what_label,what);
-                                vbox2.getChildren().add(what_textfield);
-                                vbox2.getChildren().addAll(time_textfield);
-                                vbox2.getChildren().add(confirm);
-                                vbox2.setSpacing(2);
-                                query.setTitle("Add Appointment");
-                                query.setScene(new Scene(vbox2, 250, 120));
-                                query.show();
-
-
-                                /**
-                                 * CONFIRM appointment button
-                                 */
-                                confirm.setOnAction(new EventHandler<ActionEvent>() {
-                                    @Override
-                                    public void handle(ActionEvent actionEvent) {
-
-                                        appointmentvBox = new VBox();
-                                        Appointment appointment =
-                                                Appointment.fromString(btn.getText().split(" ")[0] + "," +
-                                                        time.getText() + "," + what.getText());
-                                        model.add(appointment);
-                                        HashMap<Button, Appointment> object = new HashMap<>();
-                                        object.put(btn, appointment);
-                                        update(new Subject(), object);
-                                        borderPane1.setTop(appointmentvBox);
-                                    }
-                                });
-
-                            }
-                        });
-                        ArrayList<Appointment> appointments = new ArrayList<>();
-
-                        try {
-                            appointments = model.appointmentsOn(Integer.parseInt(btn.getText().split(" ")[0]));
-                        } catch (NullPointerException n) {
-
-                        }
-
-                        for (Appointment appointment : appointments) {
-                            Label app = new Label(appointment.toString());
-                            appointmentbox.getChildren().add(app);
-                        }
-                        hbox1.getChildren().add(addApp);
-                        hbox1.getChildren().add(removeApp);
-                        borderPane1.setBottom(hbox1);
-                        borderPane1.setTop(appointmentbox);
-
-                        dialog.setScene(new Scene(borderPane1, 400, 600));
-                        dialog.show();
-
-                    }
-                });
-                day++;
-                btn.setPrefSize(200, 100);
-                gridPane.add(btn, j, i);
-                if (day >= model.getMonthsize() + 1) {
-                    break;
-                }
+        //The search box looks words up in the model's text index
+        TextField search = new TextField();
+        search.setPromptText("Find appointments");
+        search.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent actionEvent) {
+                showFound(search.getText());
             }
-        }
+        });
+        borderPane.setTop(search);
 
-        stage.setScene(new Scene(borderPane, 500, 500));
+        stage.setScene(new Scene(borderPane, 500, 540));
         stage.show();
     }
 
@@ -319,21 +434,39 @@ public class KalGUI extends Application implements Observer<Subject> {
      * exist.
      *
      * NOTE: If no argument is provided, my program uses 29 days as default since there are 29 days in Feb
-     * 2020.
+     * 2020. With {@value #JOURNAL} among the arguments, a calendar read from a file is journaled.
      */
     @Override
     public void init() {
+        String fileName = null;
+        boolean journal = false;
+        for (String arg : getParameters().getRaw()) {
+            if (arg.equals(JOURNAL)) {
+                journal = true;
+            } else if (fileName == null) {
+                fileName = arg;
+            }
+        }
         try {
-            List<String> cmdLineArgs = getParameters().getRaw();
-            if (cmdLineArgs.isEmpty()) {
+            if (fileName == null) {
                 this.model = Calendar.fromFile("NONE");
             } else {
-                this.model = Calendar.fromFile(cmdLineArgs.get(0));
+                this.model = Calendar.fromFile(fileName);
             }
+            //jconsole and JMX scrapers can watch the running calendar
+            this.model.registerMetrics();
 
         } catch (IOException e) {
             System.err.println(e.getMessage());
-
+            return;
+        }
+        if (journal && fileName != null) {
+            //saving then only forces the journal of changes to the disk
+            try {
+                this.model.enableJournal(0);
+            } catch (IOException e) {
+                System.err.println("Not journaled: " + e.getMessage());
+            }
         }
     }
 
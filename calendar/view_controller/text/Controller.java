@@ -7,13 +7,15 @@ package calendar.view_controller.text;
 
 import calendar.model.Appointment;
 import calendar.model.Calendar;
+import calendar.model.FreeSlot;
+import calendar.model.Recurrence;
 import calendar.model.Time;
-import edu.rit.cs.Range;
+import calendar.model.TimeFormat;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UncheckedIOException;
-import java.util.LinkedList;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -30,8 +32,15 @@ public class Controller {
 
     public final static String NEW = "new";
     public final static String REMOVE = "remove";
+    public final static String EDIT = "edit";
+    public final static String MOVE = "move";
+    public final static String REPEAT = "repeat";
+    public final static String SKIP = "skip";
     public final static String SHOW = "show";
+    public final static String FIND = "find";
+    public final static String FREE = "free";
     public final static String SAVE = "save";
+    public final static String CLOCK = "clock";
     public final static String QUIT = "quit";
 
     private Calendar model;
@@ -40,12 +49,25 @@ public class Controller {
 
     private final int currentDate = 0;
 
+    /**
+     * How this session shows times. Each Controller has its own, and
+     * saving always uses the canonical format regardless.
+     */
+    private TimeFormat format = TimeFormat.CANONICAL;
+
     static final Map< String, String > help = new LinkedHashMap<>();
 
     static {
-        help.put( NEW, NEW + " date,time,appointment" );
+        help.put( NEW, NEW + " date,time,appointment[,minutes] (\"quote\" one with commas)" );
         help.put( SHOW, SHOW + " [date]" );
-        help.put( REMOVE, REMOVE + " date,time" );
+        help.put( FIND, FIND + " words" );
+        help.put( FREE, FREE + " minutes[,date[,date]]" );
+        help.put( REMOVE, REMOVE + " date,time[,appointment] | #id" );
+        help.put( EDIT, EDIT + " #id,appointment" );
+        help.put( MOVE, MOVE + " #id,date,time" );
+        help.put( REPEAT, REPEAT + " [daily|weekly|days,date,time,appointment[,minutes[,times|until]]]" );
+        help.put( SKIP, SKIP + " #id,date" );
+        help.put( CLOCK, CLOCK + " 12|24" );
         help.put( SAVE, SAVE );
         help.put( QUIT, QUIT );
     }
@@ -55,7 +77,14 @@ public class Controller {
     {
         actions.put( NEW, this::newAppt );
         actions.put( SHOW, this::show );
+        actions.put( FIND, this::find );
+        actions.put( FREE, this::free );
         actions.put( REMOVE, this::removeAppt );
+        actions.put( EDIT, this::editAppt );
+        actions.put( MOVE, this::moveAppt );
+        actions.put( REPEAT, this::repeat );
+        actions.put( SKIP, this::skip );
+        actions.put( CLOCK, this::clock );
         actions.put( SAVE, this::save );
     }
 
@@ -118,68 +147,386 @@ public class Controller {
         }
     }
 
+    /**
+     * Add an appointment, and tell about anything already booked
+     * while it takes place. It is added all the same. A description
+     * in quotes, with any quote in it written twice, may have commas
+     * in it, as in the calendar file; otherwise a last field that is
+     * a number is the minutes and the rest is the description.
+     * @param args "date,time,appointment", optionally followed by
+     *             ",minutes" for how long it lasts; or
+     *             "time,appointment[,minutes]" on the current date
+     * @throws NumberFormatException if anything in the args string is amiss
+     */
     private void newAppt( String args ) {
-        String[] parts = args.split( "," );
-        if ( parts.length == 3 ) { // date, time, what
-            model.add(
-                    Integer.parseInt( parts[ 0 ].trim() ),
-                    Time.fromString( parts[ 1 ].trim() ),
-                    parts[ 2 ].trim()
-            );
+        int first = args.indexOf( ',' );
+        if ( first >= 0 && this.currentDate != 0 && parseCount( args, 0, first ) < 0 ) {
+            // time, what[, minutes]
+            args = this.currentDate + "," + args;
+            first = args.indexOf( ',' );
         }
-        else if ( this.currentDate != 0 ) { // time, what
-            model.add(
-                    this.currentDate,
-                    Time.fromString( parts[ 0 ].trim() ),
-                    parts[ 1 ].trim()
+        int second = first < 0 ? -1 : args.indexOf( ',', first + 1 );
+        if ( second < 0 ) {
+            throw new NumberFormatException( "Expected date,time,appointment: " + args );
+        }
+        int textStart = second + 1;
+        while ( textStart < args.length() && args.charAt( textStart ) == ' ' ) textStart++;
+        Appointment appt;
+        if ( textStart < args.length() && args.charAt( textStart ) == '"' ) {
+            // read the quoted description and its minutes as the file format does
+            appt = Appointment.fromString(
+                    args.substring( 0, second + 1 ) + args.substring( textStart ).stripTrailing() );
+        }
+        else {
+            int last = args.lastIndexOf( ',' );
+            int minutes = last > second ? parseCount( args, last + 1, args.length() ) : -1;
+            appt = new Appointment(
+                    parseDate( args, 0, first ),
+                    parseTime( args, first + 1, second ),
+                    args.substring( second + 1, minutes < 0 ? args.length() : last ).trim(),
+                    Math.max( minutes, 0 )
             );
         }
+        long id = model.add( appt );
+        for ( Appointment other: this.model.conflictsWith( this.model.get( id ) ) ) {
+            this.out.println( "Conflicts with " + describe( other ) );
+        }
+    }
+
+    /**
+     * Read a count out of part of a command, if that is what it holds.
+     * @param args the command arguments
+     * @param from start of the count
+     * @param to end of the count, excluded
+     * @return the count, or -1 if the part is not a whole number
+     */
+    private static int parseCount( String args, int from, int to ) {
+        while ( from < to && args.charAt( from ) == ' ' ) from++;
+        while ( to > from && args.charAt( to - 1 ) == ' ' ) to--;
+        if ( from == to || to - from > 9 ) {
+            return -1;
+        }
+        for ( int i = from; i < to; i++ ) {
+            if ( args.charAt( i ) < '0' || args.charAt( i ) > '9' ) {
+                return -1;
+            }
+        }
+        return Integer.parseInt( args, from, to, 10 );
+    }
+
+    /**
+     * Read a date out of part of a command without splitting it.
+     * @param args the command arguments
+     * @param from start of the date
+     * @param to end of the date, excluded
+     * @return the date
+     * @throws NumberFormatException if it is not a number
+     */
+    private static int parseDate( String args, int from, int to ) {
+        while ( from < to && args.charAt( from ) == ' ' ) from++;
+        while ( to > from && args.charAt( to - 1 ) == ' ' ) to--;
+        return Integer.parseInt( args, from, to, 10 );
+    }
+
+    /**
+     * Read a time out of part of a command without splitting it.
+     * @param args the command arguments
+     * @param from start of the time
+     * @param to end of the time, excluded
+     * @return the time
+     * @throws NumberFormatException if it is not a time
+     */
+    private static Time parseTime( String args, int from, int to ) {
+        int minutes = Time.parseMinutes( args, from, to );
+        if ( minutes < 0 ) {
+            throw new NumberFormatException( "Bad time " + args.substring( from, to ) );
+        }
+        return Time.of( minutes );
     }
 
     private void show( String args ) {
         List< Appointment > allAppts = null;
         if ( args.isEmpty() ) {
-            allAppts = new LinkedList<>();
-            for ( int date: Range.of( 1, this.model.numDays() + 1 ) ) {
-                allAppts.addAll( this.model.appointmentsOn( date ) );
-            }
+            // Midnight of day 1 up to (not including) midnight after the last day
+            Time midnight = Time.of( 0 );
+            allAppts = this.model.appointmentsBetween(
+                    1, midnight, this.model.numDays() + 1, midnight, false );
         }
         else {
             int date = Integer.parseInt( args );
             allAppts = this.model.appointmentsOn( date );
         }
-        allAppts.forEach( this.out::println );
+        for ( Appointment appt: allAppts ) {
+            this.out.println( describe( appt ) );
+        }
+    }
+
+    /**
+     * Show the appointments of the month whose descriptions have all
+     * of the given words, in any case.
+     * @param args the words
+     */
+    private void find( String args ) {
+        for ( Appointment appt: this.model.find( args ) ) {
+            this.out.println( describe( appt ) );
+        }
+    }
+
+    /**
+     * Show the free time that lasts at least some minutes: over the
+     * month, on one day, or from one day to another. The days are
+     * days of the month or ISO dates.
+     * @param args "minutes" optionally followed by ",date" and ",date"
+     * @throws NumberFormatException if anything in the args string is amiss
+     */
+    private void free( String args ) {
+        int[] ends = new int[ 3 ];
+        int fields = fieldEnds( args, ends, FREE );
+        if ( args.isBlank() ) {
+            throw new IllegalArgumentException( "Usage: " + help.get( FREE ) );
+        }
+        int minutes = requireCount( args, 0, ends[ 0 ] );
+        LocalDate from = fields > 1 ? parseDay( args, ends[ 0 ] + 1, ends[ 1 ] ) : this.model.getMonth().atDay( 1 );
+        LocalDate to = fields > 2 ? parseDay( args, ends[ 1 ] + 1, ends[ 2 ] ) :
+                       fields > 1 ? from : this.model.getMonth().atEndOfMonth();
+        for ( FreeSlot slot: this.model.findFreeSlots( from, to, minutes ) ) {
+            this.out.println( slot.toString( this.format ) );
+        }
     }
 
     /**
-     * Warning: This code will not search based on the appointment's
-     * textt string. It will remove the first appointment it finds at
-     * the given date and time.
+     * Show an appointment with the id that the other commands take.
+     * An occurrence of a repeating appointment has the id of its
+     * rule, marked with a star.
+     * @param appt the appointment
+     * @return the line to print
+     */
+    private String describe( Appointment appt ) {
+        return "#" + appt.getId() + ( appt.isRecurring() ? "* " : " " ) + appt.toString( this.format );
+    }
+
+    /**
+     * Remove appointments. "#id" removes that one; "date,time,appointment"
+     * removes the ones at that date and time with that description, or
+     * "time,appointment" on the current date; "date,time" removes every
+     * appointment at that date and time.
      * @param args the string describing the entire appointment
      *             (format described at {@link Appointment#fromString(String)})
      * @throws NumberFormatException if anything in the args string is amiss
      */
     private void removeAppt( String args ) {
-        String[] parts = args.split( "," );
-        if ( parts.length == 3 ) {
-            Appointment appt = Appointment.fromString( args );
-            this.model.remove( appt );
+        if ( args.trim().startsWith( "#" ) ) {
+            long id = parseId( args, 0, args.length() );
+            if ( !this.model.remove( id ) && !this.model.removeRecurrence( id ) ) {
+                this.out.println( "No appointment #" + id );
+            }
+            return;
+        }
+        int first = args.indexOf( ',' );
+        int second = first < 0 ? -1 : args.indexOf( ',', first + 1 );
+        if ( second >= 0 ) {
+            this.model.remove( Appointment.fromString( args ) );
         }
         else if ( this.currentDate != 0 ) {
             Appointment appt = new Appointment(
                     this.currentDate,
-                    Time.fromString( parts[ 0 ].trim() ),
-                    parts[ 1 ]
+                    parseTime( args, 0, first ),
+                    args.substring( first + 1 )
             );
             this.model.remove( appt );
         }
         else {
-            Appointment appt = new Appointment(
-                    Integer.parseInt( parts[ 0 ].trim() ),
-                    Time.fromString( parts[ 1 ].trim() ),
-                    ""
+            this.model.removeAt(
+                    parseDate( args, 0, first ),
+                    parseTime( args, first + 1, args.length() )
             );
-            this.model.remove( appt );
+        }
+    }
+
+    /**
+     * Change the description of one appointment, found by the id
+     * that show gives it.
+     * @param args "#id,new description"
+     * @throws NumberFormatException if the id is amiss
+     */
+    private void editAppt( String args ) {
+        int first = args.indexOf( ',' );
+        if ( first < 0 ) {
+            throw new IllegalArgumentException( "Usage: " + help.get( EDIT ) );
+        }
+        long id = parseId( args, 0, first );
+        if ( !this.model.update( id, args.substring( first + 1 ).trim() ) ) {
+            this.out.println( "No appointment #" + id );
+        }
+    }
+
+    /**
+     * Move one appointment, found by the id that show gives it, to
+     * another date and time of the month.
+     * @param args "#id,date,time"
+     * @throws NumberFormatException if anything in the args string is amiss
+     */
+    private void moveAppt( String args ) {
+        int first = args.indexOf( ',' );
+        int second = first < 0 ? -1 : args.indexOf( ',', first + 1 );
+        if ( second < 0 ) {
+            throw new IllegalArgumentException( "Usage: " + help.get( MOVE ) );
+        }
+        long id = parseId( args, 0, first );
+        if ( !this.model.move( id, parseDate( args, first + 1, second ),
+                               parseTime( args, second + 1, args.length() ) ) ) {
+            this.out.println( "No appointment #" + id );
+        }
+    }
+
+    /**
+     * Add an appointment that repeats, or with no arguments list the
+     * repeating appointments. The date is a day of the month or an ISO
+     * date; the last field is how many times it happens, or the ISO
+     * date it stops after.
+     * @param args "daily|weekly|days,date,time,appointment" optionally
+     *             followed by ",minutes" and then ",times" or ",until"
+     * @throws NumberFormatException if anything in the args string is amiss
+     */
+    private void repeat( String args ) {
+        if ( args.isBlank() ) {
+            for ( Recurrence rule: this.model.recurrences() ) {
+                this.out.println( "#" + rule.getId() + "* " + rule.toString( this.format ) );
+            }
+            return;
+        }
+        int[] ends = new int[ 6 ];
+        int fields = fieldEnds( args, ends, REPEAT );
+        if ( fields < 4 ) {
+            throw new IllegalArgumentException( "Usage: " + help.get( REPEAT ) );
+        }
+        String every = args.substring( 0, ends[ 0 ] ).trim();
+        int days = every.equals( "daily" ) ? 1 :
+                   every.equals( "weekly" ) ? 7 : requireCount( args, 0, ends[ 0 ] );
+        Recurrence rule = new Recurrence(
+                parseDay( args, ends[ 0 ] + 1, ends[ 1 ] ),
+                parseTime( args, ends[ 1 ] + 1, ends[ 2 ] ),
+                args.substring( ends[ 2 ] + 1, ends[ 3 ] ).trim(),
+                fields > 4 ? requireCount( args, ends[ 3 ] + 1, ends[ 4 ] ) : 0,
+                days );
+        if ( fields > 5 ) {
+            int dash = args.indexOf( '-', ends[ 4 ] + 1 );
+            rule = dash >= 0 ? rule.until( parseDay( args, ends[ 4 ] + 1, ends[ 5 ] ) ) :
+                   rule.times( requireCount( args, ends[ 4 ] + 1, ends[ 5 ] ) );
+        }
+        this.out.println( "#" + this.model.addRecurrence( rule ) + "* " + rule.toString( this.format ) );
+    }
+
+    /**
+     * Skip one occurrence of a repeating appointment.
+     * @param args "#id,date" with the id of the rule and the date as a
+     *             day of the month or an ISO date
+     * @throws NumberFormatException if anything in the args string is amiss
+     */
+    private void skip( String args ) {
+        int first = args.indexOf( ',' );
+        if ( first < 0 ) {
+            throw new IllegalArgumentException( "Usage: " + help.get( SKIP ) );
+        }
+        long id = parseId( args, 0, first );
+        LocalDate date = parseDay( args, first + 1, args.length() );
+        if ( !this.model.skip( id, date ) ) {
+            this.out.println( "No repeat #" + id + " on " + date );
+        }
+    }
+
+    /**
+     * Read a day that is either a date of the month or an ISO date out
+     * of part of a command.
+     * @param args the command arguments
+     * @param from start of the day
+     * @param to end of the day, excluded
+     * @return the date
+     * @throws java.time.DateTimeException if it is not a day
+     */
+    private LocalDate parseDay( String args, int from, int to ) {
+        while ( from < to && args.charAt( from ) == ' ' ) from++;
+        while ( to > from && args.charAt( to - 1 ) == ' ' ) to--;
+        int dash = args.indexOf( '-', from );
+        if ( dash >= 0 && dash < to ) {
+            return LocalDate.parse( args.subSequence( from, to ) );
+        }
+        return this.model.getMonth().atDay( parseDate( args, from, to ) );
+    }
+
+    /**
+     * Find where each comma separated field of a command ends, without
+     * splitting it.
+     * @param args the command arguments
+     * @param ends filled with the end of each field, excluded: the
+     *             comma after it, or the length of args for the last
+     * @param command the command, for the usage message
+     * @return how many fields there are
+     * @throws IllegalArgumentException if there are more fields than ends
+     */
+    private static int fieldEnds( String args, int[] ends, String command ) {
+        int fields = 0;
+        for ( int from = 0; ; from = ends[ fields++ ] + 1 ) {
+            if ( fields == ends.length ) {
+                throw new IllegalArgumentException( "Usage: " + help.get( command ) );
+            }
+            int comma = args.indexOf( ',', from );
+            ends[ fields ] = comma < 0 ? args.length() : comma;
+            if ( comma < 0 ) {
+                return fields + 1;
+            }
+        }
+    }
+
+    /**
+     * Read a count out of part of a command that has to hold one.
+     * @param args the command arguments
+     * @param from start of the count
+     * @param to end of the count, excluded
+     * @return the count
+     * @throws NumberFormatException if the part is not a whole number
+     */
+    private static int requireCount( String args, int from, int to ) {
+        int count = parseCount( args, from, to );
+        if ( count < 0 ) {
+            throw new NumberFormatException( "Bad number " + args.substring( from, to ).trim() );
+        }
+        return count;
+    }
+
+    /**
+     * Read an appointment id, written as "#id", out of part of a
+     * command.
+     * @param args the command arguments
+     * @param from start of the id
+     * @param to end of the id, excluded
+     * @return the id
+     * @throws NumberFormatException if it is not an id
+     */
+    private static long parseId( String args, int from, int to ) {
+        while ( from < to && args.charAt( from ) == ' ' ) from++;
+        while ( to > from && args.charAt( to - 1 ) == ' ' ) to--;
+        if ( from == to || args.charAt( from ) != '#' ) {
+            throw new NumberFormatException( "Bad id " + args.substring( from, to ) );
+        }
+        return Long.parseLong( args, from + 1, to, 10 );
+    }
+
+    /**
+     * Choose how times are shown in this session.
+     * @param args "12" for a 12-hour clock, "24" for a 24-hour clock
+     * @throws IllegalArgumentException if args is neither
+     */
+    private void clock( String args ) {
+        switch ( args.trim() ) {
+            case "12":
+                this.format = this.format.withTwelveHour( true );
+                break;
+            case "24":
+                this.format = this.format.withTwelveHour( false );
+                break;
+            default:
+                throw new IllegalArgumentException( "Usage: " + help.get( CLOCK ) );
         }
     }
 
@@ -5,15 +5,14 @@
 
 package calendar.view_controller.text;
 
-import calendar.model.Appointment;
 import calendar.model.Calendar;
+import calendar.model.CalendarDelta;
 import edu.rit.cs.ConsoleApplication;
 
 import edu.rit.cs.Observer;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -25,21 +24,46 @@ public class KalPTUI extends ConsoleApplication implements Observer< Calendar >
 
     private boolean busted = false;
 
+    /**
+     * The argument that turns on journaling of a calendar read from a file
+     */
+    public static final String JOURNAL = "--journal";
+
     @Override
     public void init() {
+        String fileName = null;
+        boolean journal = false;
+        for ( String arg : this.getArguments() ) {
+            if ( arg.equals( JOURNAL ) ) {
+                journal = true;
+            }
+            else if ( fileName == null ) {
+                fileName = arg;
+            }
+        }
         try {
-            List< String > cmdLineArgs = this.getArguments();
-            if ( cmdLineArgs.isEmpty() ) {
+            if ( fileName == null ) {
                 this.model = new Calendar( 28 );
             }
             else {
-                this.model = Calendar.fromFile( cmdLineArgs.get( 0 ) );
+                this.model = Calendar.fromFile( fileName );
             }
             this.model.addObserver( this );
+            this.model.registerMetrics();
         }
         catch( IOException e ) {
             System.err.println( e.getMessage() );
             this.busted = true;
+            return;
+        }
+        if ( journal && fileName != null ) {
+            // saving then only forces the journal of changes to the disk
+            try {
+                this.model.enableJournal( 0 );
+            }
+            catch( IOException e ) {
+                System.err.println( "Not journaled: " + e.getMessage() );
+            }
         }
     }
 
@@ -60,10 +84,10 @@ public class KalPTUI extends ConsoleApplication implements Observer< Calendar >
     }
 
     public void update( Calendar o, Object arg ) {
-        Calendar model = o; // (Calendar)o;
-        int date = (Integer)arg;
-        List< Appointment > appts = model.appointmentsOn( date );
-        appts.forEach( System.out::println );
+        if ( arg instanceof CalendarDelta ) {
+            CalendarDelta delta = (CalendarDelta)arg;
+            delta.changes().forEach( System.out::println );
+        }
     }
 
     public static void main( String[] args ) {
@@ -1,5 +1,7 @@
 module Lab {
     requires transitive javafx.controls;
+    requires java.management;             // CalendarMetrics MBean
+    requires jdk.jfr;                     // CalendarEvents
     exports calendar.view_controller.fx;  // UI access by client
     exports edu.rit.cs;                   // utilities
     exports calendar.model;               // access needed by UI